@@ -5,6 +5,18 @@
  */
 package miniJava.AbstractSyntaxTrees;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 /*
  * Display AST in text form, one node per line, using indentation to show 
  * subordinate nodes below a parent node.
@@ -17,19 +29,58 @@ package miniJava.AbstractSyntaxTrees;
  *   where arg is a prefix string (indentation) to precede display of ast node
  *   and a null Object is returned as the result.
  *   The display is produced by printing a line of output at each node visited.
+ *
+ *   Output goes through a buffered writer that is flushed once the tree is done.
+ *   In JSON lines mode every node is instead one object per line, naming its
+ *   parent, for tools to read back.
  */
 public class ASTDisplay implements Visitor<String,Object> {
 	
 	public static boolean showPosition = false;
-    
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    private Writer out; // null writes to whatever System.out is when showTree runs
+    private boolean jsonLines;
+    // every prefix is built once and handed out again, the same prefix object always comes back in
+    private Map<String, String> indents = new IdentityHashMap<String, String>();
+    private Map<String, String> listPrefixes = new IdentityHashMap<String, String>();
+
+    public ASTDisplay() {
+    }
+
+    public ASTDisplay(Writer out, boolean jsonLines) {
+        this.out = out;
+        this.jsonLines = jsonLines;
+    }
+
+    public ASTDisplay(OutputStream out, boolean jsonLines) {
+        this(new OutputStreamWriter(out), jsonLines);
+    }
+
     /**
-     * print text representation of AST to stdout
+     * print text representation of AST to the writer, stdout by default
      * @param ast root node of AST 
      */
     public void showTree(AST ast){
-        System.out.println("======= AST Display =========================");
-        ast.visit(this, "");
-        System.out.println("=============================================");
+        Writer target = out == null ? new OutputStreamWriter(System.out) : out;
+        Writer buffered = new BufferedWriter(target, 1 << 16);
+        Writer saved = out;
+        out = buffered;
+        try {
+            if (jsonLines) {
+                showJsonLines(ast);
+            } else {
+                show("", "======= AST Display =========================");
+                ast.visit(this, "");
+                show("", "=============================================");
+            }
+            buffered.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out = saved;
+        }
     }   
     
     // methods to format output
@@ -40,7 +91,13 @@ public class ASTDisplay implements Visitor<String,Object> {
      * @param text    preformatted node display
      */
     private void show(String prefix, String text) {
-        System.out.println(prefix + text);
+        try {
+            out.write(prefix);
+            out.write(text);
+            out.write(NEWLINE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
     
     /**
@@ -49,7 +106,7 @@ public class ASTDisplay implements Visitor<String,Object> {
      * @param node    AST node, will be shown by name
      */
     private void show(String prefix, AST node) {
-    	System.out.println(prefix + node.toString());
+    	show(prefix, node.toString());
     }
     
     /**
@@ -66,7 +123,144 @@ public class ASTDisplay implements Visitor<String,Object> {
      * @return  new spacing 
      */
     private String indent(String prefix) {
-        return prefix + "  ";
+        String indented = indents.get(prefix);
+        if (indented == null) {
+            indented = prefix + "  ";
+            indents.put(prefix, indented);
+        }
+        return indented;
+    }
+
+    /**
+     * prefix for the elements of a list
+     * @param prefix  current spacing to indicate depth in AST
+     * @return  spacing with the list marker
+     */
+    private String listPrefix(String prefix) {
+        String listed = listPrefixes.get(prefix);
+        if (listed == null) {
+            listed = prefix + "  . ";
+            listPrefixes.put(prefix, listed);
+        }
+        return listed;
+    }
+
+    /**
+     * display blocks, ifs, whiles and operator chains on a stack of their own, they nest
+     * as deep as the program does. Everything else goes through its visit method as usual.
+     * @param ast     a node of one of those kinds
+     * @param prefix  indent of ast
+     */
+    private void showNested(AST ast, String prefix) {
+        List<AST> open = new ArrayList<AST>(); // nodes whose children are being shown
+        List<String> prefixes = new ArrayList<String>();
+        List<Integer> done = new ArrayList<Integer>(); // children of each that are shown
+        new ASTWalker() {
+            protected boolean pre(AST node) {
+                int last = open.size() - 1;
+                String pfx = last < 0 ? prefix : childPrefix(open.get(last), prefixes.get(last), done.get(last));
+                if (!(node instanceof BlockStmt || node instanceof IfStmt || node instanceof WhileStmt
+                        || node instanceof BinaryExpr)) {
+                    node.visit(ASTDisplay.this, pfx);
+                    return false;
+                }
+                show(pfx, node);
+                if (node instanceof BlockStmt) {
+                    show(pfx, "  StatementList [" + ((BlockStmt) node).sl.size() + "]");
+                }
+                open.add(node);
+                prefixes.add(pfx);
+                done.add(0);
+                return true;
+            }
+
+            protected void after(AST node, int child) {
+                done.set(done.size() - 1, child + 1);
+            }
+
+            protected void post(AST node) {
+                int last = open.size() - 1;
+                open.remove(last);
+                prefixes.remove(last);
+                done.remove(last);
+            }
+        }.walk(ast);
+    }
+
+    // The indent the visit methods give the child-th child of parent
+    private String childPrefix(AST parent, String prefix, int child) {
+        if (parent instanceof BlockStmt) {
+            return listPrefix(prefix);
+        } else if (parent instanceof BinaryExpr && child > 0) {
+            return indent(indent(prefix)); // the operands, the operator comes first
+        }
+        return indent(prefix);
+    }
+
+    /**
+     * one JSON object per node and line, in the order the text display shows them
+     * @param ast root node of AST
+     */
+    private void showJsonLines(AST ast) {
+        StringBuilder line = new StringBuilder();
+        new ASTWalker() {
+            private int next = 0;
+            private int[] parents = new int[16];
+            private int depth = 0;
+
+            protected boolean pre(AST node) {
+                line.setLength(0);
+                line.append("{\"id\":").append(next)
+                    .append(",\"parent\":").append(depth == 0 ? -1 : parents[depth - 1])
+                    .append(",\"kind\":\"").append(node.getClass().getSimpleName()).append('"');
+                if (node.posn != null) {
+                    line.append(",\"line\":").append(node.posn.getLine())
+                        .append(",\"column\":").append(node.posn.getColumn());
+                }
+                if (node instanceof Declaration) {
+                    jsonString(line.append(",\"name\":"), ((Declaration) node).name);
+                }
+                if (node instanceof MemberDecl) {
+                    line.append(",\"private\":").append(((MemberDecl) node).isPrivate)
+                        .append(",\"static\":").append(((MemberDecl) node).isStatic);
+                }
+                if (node instanceof TypeDenoter) {
+                    line.append(",\"typeKind\":\"").append(((TypeDenoter) node).typeKind).append('"');
+                }
+                if (node instanceof Terminal) {
+                    jsonString(line.append(",\"spelling\":"), ((Terminal) node).spelling);
+                }
+                show("", line.append('}').toString());
+                if (depth == parents.length) {
+                    parents = Arrays.copyOf(parents, depth * 2);
+                }
+                parents[depth++] = next++;
+                return true;
+            }
+
+            protected void post(AST node) {
+                depth--;
+            }
+        }.walk(ast);
+    }
+
+    private static void jsonString(StringBuilder sb, String text) {
+        if (text == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
     }
     
     
@@ -80,7 +274,7 @@ public class ASTDisplay implements Visitor<String,Object> {
         show(arg, prog);
         ClassDeclList cl = prog.classDeclList;
         show(arg,"  ClassDeclList [" + cl.size() + "]");
-        String pfx = arg + "  . "; 
+        String pfx = listPrefix(arg);
         for (ClassDecl c: prog.classDeclList){
             c.visit(this, pfx);
         }
@@ -98,7 +292,7 @@ public class ASTDisplay implements Visitor<String,Object> {
         show(arg, clas);
         show(indent(arg), quote(clas.name) + " classname");
         show(arg,"  FieldDeclList [" + clas.fieldDeclList.size() + "]");
-        String pfx = arg + "  . "; 
+        String pfx = listPrefix(arg);
         for (FieldDecl f: clas.fieldDeclList)
         	f.visit(this, pfx);
         show(arg,"  MethodDeclList [" + clas.methodDeclList.size() + "]");
@@ -122,7 +316,7 @@ public class ASTDisplay implements Visitor<String,Object> {
     	show(indent(arg), quote(m.name) + " methodname");
         ParameterDeclList pdl = m.parameterDeclList;
         show(arg, "  ParameterDeclList [" + pdl.size() + "]");
-        String pfx = ((String) arg) + "  . ";
+        String pfx = listPrefix(arg);
         for (ParameterDecl pd: pdl) {
             pd.visit(this, pfx);
         }
@@ -180,13 +374,7 @@ public class ASTDisplay implements Visitor<String,Object> {
 	///////////////////////////////////////////////////////////////////////////////
 
     public Object visitBlockStmt(BlockStmt stmt, String arg){
-        show(arg, stmt);
-        StatementList sl = stmt.sl;
-        show(arg,"  StatementList [" + sl.size() + "]");
-        String pfx = arg + "  . ";
-        for (Statement s: sl) {
-        	s.visit(this, pfx);
-        }
+        showNested(stmt, arg);
         return null;
     }
     
@@ -217,7 +405,7 @@ public class ASTDisplay implements Visitor<String,Object> {
         stmt.methodRef.visit(this, indent(arg));
         ExprList al = stmt.argList;
         show(arg,"  ExprList [" + al.size() + "]");
-        String pfx = arg + "  . ";
+        String pfx = listPrefix(arg);
         for (Expression e: al) {
             e.visit(this, pfx);
         }
@@ -232,18 +420,12 @@ public class ASTDisplay implements Visitor<String,Object> {
     }
     
     public Object visitIfStmt(IfStmt stmt, String arg){
-        show(arg,stmt);
-        stmt.cond.visit(this, indent(arg));
-        stmt.thenStmt.visit(this, indent(arg));
-        if (stmt.elseStmt != null)
-            stmt.elseStmt.visit(this, indent(arg));
+        showNested(stmt, arg);
         return null;
     }
     
     public Object visitWhileStmt(WhileStmt stmt, String arg){
-        show(arg, stmt);
-        stmt.cond.visit(this, indent(arg));
-        stmt.body.visit(this, indent(arg));
+        showNested(stmt, arg);
         return null;
     }
     
@@ -262,10 +444,7 @@ public class ASTDisplay implements Visitor<String,Object> {
     }
     
     public Object visitBinaryExpr(BinaryExpr expr, String arg){
-        show(arg, expr);
-        expr.operator.visit(this, indent(arg));
-        expr.left.visit(this, indent(indent(arg)));
-        expr.right.visit(this, indent(indent(arg)));
+        showNested(expr, arg);
         return null;
     }
     
@@ -287,7 +466,7 @@ public class ASTDisplay implements Visitor<String,Object> {
         expr.functionRef.visit(this, indent(arg));
         ExprList al = expr.argList;
         show(arg,"  ExprList + [" + al.size() + "]");
-        String pfx = arg + "  . ";
+        String pfx = listPrefix(arg);
         for (Expression e: al) {
             e.visit(this, pfx);
         }
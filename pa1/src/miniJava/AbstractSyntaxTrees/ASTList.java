@@ -0,0 +1,73 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+// Storage behind the AST list classes. An empty list shares one empty array. A list the parser
+//  built is a slice of a ListArena chunk holding exactly its elements, anything added to it
+//  later moves it into an array of its own first.
+public abstract class ASTList<T> implements Iterable<T> {
+    private static final Object[] EMPTY = new Object[0];
+
+    private Object[] elements = EMPTY;
+    private int offset;
+    private int size;
+    private int capacity;
+
+    public void add(T e) {
+        if (size == capacity) {
+            Object[] grown = new Object[Math.max(2, size * 2)];
+            System.arraycopy(elements, offset, grown, 0, size);
+            elements = grown;
+            offset = 0;
+            capacity = grown.length;
+        }
+        elements[offset + size++] = e;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int i) {
+        return (T) elements[offset + Objects.checkIndex(i, size)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return (T) elements[offset + next++];
+            }
+        };
+    }
+
+    // Moves a list out of the ListArena chunk it may be a slice of, before the arena is rewound
+    public void detach() {
+        if (size > 0) {
+            elements = Arrays.copyOfRange(elements, offset, offset + size);
+            offset = 0;
+            capacity = size;
+        }
+    }
+
+    // The list becomes store[offset, offset + size), only the arena hands these out
+    void slice(Object[] store, int offset, int size) {
+        this.elements = store;
+        this.offset = offset;
+        this.size = size;
+        this.capacity = size;
+    }
+}
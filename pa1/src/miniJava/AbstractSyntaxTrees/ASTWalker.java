@@ -0,0 +1,272 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.util.Arrays;
+
+// Walks a tree with a stack of its own instead of the thread's, so how deep the tree goes only
+//  costs heap. pre sees a node on the way down and says whether to go into its children, post
+//  sees it again once all of them are done. Children come in the order the recursive visitors
+//  visit them, missing ones (no else branch, no initializer) are left out.
+//  A visitor can hand the nodes it doesn't care to flatten back to its own visit methods from
+//  pre, and answer false so the walker doesn't go in as well. after lets it act between the
+//  children of a node, say to test an if's condition before its branches.
+public abstract class ASTWalker {
+    private AST[] nodes = new AST[16];
+    private boolean[] entered = new boolean[16];
+    private int[] parents = new int[16]; // stack index of the node each one is a child of, -1 for a root
+    private int[] done = new int[16]; // children of an entered node that are done
+    private int top;
+    private int expanding = -1; // the node whose children are being pushed
+    private final Children children = new Children();
+
+    // False skips the children of node and post for it as well
+    protected abstract boolean pre(AST node);
+
+    protected abstract void post(AST node);
+
+    // The child-th child of node is done, counting only children that are there
+    protected void after(AST node, int child) {
+    }
+
+    public void walk(AST root) {
+        int bottom = top; // a hook may start a walk of its own on this walker
+        expanding = -1;
+        push(root);
+        while (top > bottom) {
+            int i = top - 1;
+            AST node = nodes[i];
+            if (entered[i]) {
+                nodes[--top] = null;
+                post(node);
+                finished(i);
+            } else {
+                entered[i] = true; // stays on the stack while pre runs, under anything pre walks
+                done[i] = 0;
+                if (pre(node)) {
+                    int first = top;
+                    expanding = i;
+                    node.visit(children, null);
+                    reverse(first, top); // pushed in visiting order, the first one has to come off first
+                } else {
+                    nodes[--top] = null;
+                    finished(i);
+                }
+            }
+        }
+    }
+
+    // The node that was at i is off the stack, its parent is still below it
+    private void finished(int i) {
+        int parent = parents[i];
+        if (parent >= 0) {
+            after(nodes[parent], done[parent]++);
+        }
+    }
+
+    private void push(AST node) {
+        if (node == null) {
+            return;
+        }
+        if (top == nodes.length) {
+            nodes = Arrays.copyOf(nodes, top * 2);
+            entered = Arrays.copyOf(entered, top * 2);
+            parents = Arrays.copyOf(parents, top * 2);
+            done = Arrays.copyOf(done, top * 2);
+        }
+        nodes[top] = node;
+        parents[top] = expanding;
+        entered[top++] = false;
+    }
+
+    private void pushAll(Iterable<? extends AST> list) {
+        for (AST node : list) {
+            push(node);
+        }
+    }
+
+    private void reverse(int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            AST t = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = t;
+        }
+    }
+
+    // Pushes the children of a node in the order the recursive visitors go through them
+    private class Children implements Visitor<Object, Object> {
+        public Object visitPackage(Package prog, Object arg) {
+            pushAll(prog.classDeclList);
+            return null;
+        }
+
+        public Object visitClassDecl(ClassDecl cd, Object arg) {
+            pushAll(cd.fieldDeclList);
+            pushAll(cd.methodDeclList);
+            return null;
+        }
+
+        public Object visitFieldDecl(FieldDecl fd, Object arg) {
+            push(fd.type);
+            return null;
+        }
+
+        public Object visitMethodDecl(MethodDecl md, Object arg) {
+            push(md.type);
+            pushAll(md.parameterDeclList);
+            pushAll(md.statementList);
+            return null;
+        }
+
+        public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+            push(pd.type);
+            return null;
+        }
+
+        public Object visitVarDecl(VarDecl decl, Object arg) {
+            push(decl.type);
+            return null;
+        }
+
+        public Object visitBaseType(BaseType type, Object arg) {
+            return null;
+        }
+
+        public Object visitClassType(ClassType type, Object arg) {
+            push(type.className);
+            return null;
+        }
+
+        public Object visitArrayType(ArrayType type, Object arg) {
+            push(type.eltType);
+            return null;
+        }
+
+        public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+            pushAll(stmt.sl);
+            return null;
+        }
+
+        public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+            push(stmt.varDecl);
+            push(stmt.initExp);
+            return null;
+        }
+
+        public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+            push(stmt.ref);
+            push(stmt.val);
+            return null;
+        }
+
+        public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+            push(stmt.ref);
+            push(stmt.ix);
+            push(stmt.exp);
+            return null;
+        }
+
+        public Object visitCallStmt(CallStmt stmt, Object arg) {
+            push(stmt.methodRef);
+            pushAll(stmt.argList);
+            return null;
+        }
+
+        public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+            push(stmt.returnExpr);
+            return null;
+        }
+
+        public Object visitIfStmt(IfStmt stmt, Object arg) {
+            push(stmt.cond);
+            push(stmt.thenStmt);
+            push(stmt.elseStmt);
+            return null;
+        }
+
+        public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+            push(stmt.cond);
+            push(stmt.body);
+            return null;
+        }
+
+        public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+            push(expr.operator);
+            push(expr.expr);
+            return null;
+        }
+
+        public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+            push(expr.operator);
+            push(expr.left);
+            push(expr.right);
+            return null;
+        }
+
+        public Object visitRefExpr(RefExpr expr, Object arg) {
+            push(expr.ref);
+            return null;
+        }
+
+        public Object visitIxExpr(IxExpr expr, Object arg) {
+            push(expr.ref);
+            push(expr.ixExpr);
+            return null;
+        }
+
+        public Object visitCallExpr(CallExpr expr, Object arg) {
+            push(expr.functionRef);
+            pushAll(expr.argList);
+            return null;
+        }
+
+        public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+            push(expr.lit);
+            return null;
+        }
+
+        public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+            push(expr.classtype);
+            return null;
+        }
+
+        public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+            push(expr.eltType);
+            push(expr.sizeExpr);
+            return null;
+        }
+
+        public Object visitThisRef(ThisRef ref, Object arg) {
+            return null;
+        }
+
+        public Object visitIdRef(IdRef ref, Object arg) {
+            push(ref.id);
+            return null;
+        }
+
+        public Object visitQRef(QualRef ref, Object arg) {
+            push(ref.ref);
+            push(ref.id);
+            return null;
+        }
+
+        public Object visitIdentifier(Identifier id, Object arg) {
+            return null;
+        }
+
+        public Object visitOperator(Operator op, Object arg) {
+            return null;
+        }
+
+        public Object visitIntLiteral(IntLiteral num, Object arg) {
+            return null;
+        }
+
+        public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+            return null;
+        }
+
+        public Object visitNullLiteral(NullLiteral nl, Object arg) {
+            return null;
+        }
+    }
+}
@@ -16,6 +16,7 @@ public class ClassDecl extends Declaration {
   }
 
   public int basePtr;
+  public String sourceHash; // SHA-256 of the class's text, only taken for incremental builds
   
   public <A,R> R visit(Visitor<A, R> v, A o) {
       return v.visitClassDecl(this, o);
@@ -0,0 +1,439 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// The method bodies of a program in primitive arrays instead of one object per node, for programs
+//  too big to hold all of their trees at once. The parser hands over every class as soon as it's
+//  parsed: its bodies are encoded and emptied, only the class, field, method and parameter
+//  declarations stay objects. expand puts a class's bodies back as fresh objects and release
+//  empties them again once the passes are done with it, so only the class being worked on has
+//  its statements as objects.
+//  Node i is kind[i] with the operands a, b and c, which are child nodes, lists, spellings or
+//  token types depending on the kind, NONE for a missing child. Children are always stored
+//  before their parent, so a class expands in one loop over its nodes. A list is a count
+//  followed by the nodes in items, spellings index a pool of distinct strings.
+public class CompactAST {
+    private static final int NONE = -1;
+
+    // One kind per AST class found in method bodies
+    private static final int VAR_DECL = 0, BASE_TYPE = 1, CLASS_TYPE = 2, ARRAY_TYPE = 3,
+            BLOCK_STMT = 4, VARDECL_STMT = 5, ASSIGN_STMT = 6, IX_ASSIGN_STMT = 7, CALL_STMT = 8,
+            RETURN_STMT = 9, IF_STMT = 10, WHILE_STMT = 11, UNARY_EXPR = 12, BINARY_EXPR = 13,
+            REF_EXPR = 14, IX_EXPR = 15, CALL_EXPR = 16, LITERAL_EXPR = 17, NEW_OBJECT_EXPR = 18,
+            NEW_ARRAY_EXPR = 19, THIS_REF = 20, ID_REF = 21, QUAL_REF = 22, IDENTIFIER = 23,
+            OPERATOR = 24, INT_LITERAL = 25, BOOLEAN_LITERAL = 26, NULL_LITERAL = 27;
+
+    private static final TypeKind[] TYPE_KINDS = TypeKind.values();
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private byte[] kind = new byte[1024];
+    private int[] line = new int[1024];
+    private int[] column = new int[1024];
+    private int[] a = new int[1024];
+    private int[] b = new int[1024];
+    private int[] c = new int[1024];
+    private int count;
+
+    private int[] items = new int[1024];
+    private int itemCount;
+
+    private String[] strings = new String[256];
+    private int stringCount;
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+
+    // Per class: its first node, the node after its last, and the body list of each method
+    private final Map<ClassDecl, int[]> classes = new IdentityHashMap<ClassDecl, int[]>();
+    private final Encoder encoder = new Encoder();
+    private AST[] built = new AST[1024]; // the nodes of the class being expanded
+    private int base; // its first node
+
+    // Takes cd's method bodies, they're empty afterwards. Parsers on several threads may share a store.
+    public synchronized void add(ClassDecl cd) {
+        int[] entry = new int[2 + cd.methodDeclList.size()];
+        entry[0] = count;
+        int k = 2;
+        for (MethodDecl md : cd.methodDeclList) {
+            for (Statement s : md.statementList) {
+                encoder.walk(s);
+            }
+            entry[k++] = encoder.list(md.statementList.size());
+            md.statementList = new StatementList();
+            md.parameterDeclList.detach();
+        }
+        entry[1] = count;
+        // What stays an object no longer points into the parser's ListArena, it may rewind
+        cd.fieldDeclList.detach();
+        cd.methodDeclList.detach();
+        classes.put(cd, entry);
+    }
+
+    // Drops the room left for more nodes, once everything was added
+    public void trim() {
+        kind = Arrays.copyOf(kind, count);
+        line = Arrays.copyOf(line, count);
+        column = Arrays.copyOf(column, count);
+        a = Arrays.copyOf(a, count);
+        b = Arrays.copyOf(b, count);
+        c = Arrays.copyOf(c, count);
+        items = Arrays.copyOf(items, itemCount);
+        strings = Arrays.copyOf(strings, stringCount);
+    }
+
+    // Gives cd's methods their bodies back, as new objects on every call
+    public void expand(ClassDecl cd) {
+        int[] entry = classes.get(cd);
+        base = entry[0];
+        int n = entry[1] - base;
+        if (built.length < n) {
+            built = new AST[Math.max(n, built.length * 2)];
+        }
+        for (int i = 0; i < n; i++) {
+            built[i] = node(base + i);
+        }
+        int k = 2;
+        for (MethodDecl md : cd.methodDeclList) {
+            md.statementList = statements(entry[k++]);
+        }
+        Arrays.fill(built, 0, n, null);
+    }
+
+    // Lets go of the bodies expand made, the store still has them
+    public void release(ClassDecl cd) {
+        for (MethodDecl md : cd.methodDeclList) {
+            md.statementList = new StatementList();
+        }
+    }
+
+    // Node i made from the children before it
+    private AST node(int i) {
+        SourcePosition posn = line[i] == 0 ? null : new SourcePosition(line[i], column[i]);
+        AST ast;
+        switch (kind[i]) {
+            case VAR_DECL:
+                return new VarDecl((TypeDenoter) child(b[i]), strings[a[i]], posn);
+            case BASE_TYPE:
+                return new BaseType(TYPE_KINDS[a[i]], posn);
+            case CLASS_TYPE:
+                return new ClassType((Identifier) child(a[i]), posn);
+            case ARRAY_TYPE:
+                return new ArrayType((TypeDenoter) child(a[i]), posn);
+            case BLOCK_STMT:
+                return new BlockStmt(statements(a[i]), posn);
+            case VARDECL_STMT:
+                return new VarDeclStmt((VarDecl) child(a[i]), (Expression) child(b[i]), posn);
+            case ASSIGN_STMT:
+                return new AssignStmt((Reference) child(a[i]), (Expression) child(b[i]), posn);
+            case IX_ASSIGN_STMT:
+                return new IxAssignStmt((Reference) child(a[i]), (Expression) child(b[i]),
+                        (Expression) child(c[i]), posn);
+            case CALL_STMT:
+                return new CallStmt((Reference) child(a[i]), expressions(b[i]), posn);
+            case RETURN_STMT:
+                return new ReturnStmt((Expression) child(a[i]), posn);
+            case IF_STMT:
+                return new IfStmt((Expression) child(a[i]), (Statement) child(b[i]), (Statement) child(c[i]), posn);
+            case WHILE_STMT:
+                return new WhileStmt((Expression) child(a[i]), (Statement) child(b[i]), posn);
+            case UNARY_EXPR:
+                return new UnaryExpr((Operator) child(a[i]), (Expression) child(b[i]), posn);
+            case BINARY_EXPR:
+                return new BinaryExpr((Operator) child(a[i]), (Expression) child(b[i]),
+                        (Expression) child(c[i]), posn);
+            case REF_EXPR:
+                return new RefExpr((Reference) child(a[i]), posn);
+            case IX_EXPR:
+                return new IxExpr((Reference) child(a[i]), (Expression) child(b[i]), posn);
+            case CALL_EXPR:
+                return new CallExpr((Reference) child(a[i]), expressions(b[i]), posn);
+            case LITERAL_EXPR:
+                return new LiteralExpr((Terminal) child(a[i]), posn);
+            case NEW_OBJECT_EXPR:
+                return new NewObjectExpr((ClassType) child(a[i]), posn);
+            case NEW_ARRAY_EXPR:
+                return new NewArrayExpr((TypeDenoter) child(a[i]), (Expression) child(b[i]), posn);
+            case THIS_REF:
+                return new ThisRef(posn);
+            case ID_REF:
+                return new IdRef((Identifier) child(a[i]), posn);
+            case QUAL_REF:
+                return new QualRef((Reference) child(a[i]), (Identifier) child(b[i]), posn);
+            case IDENTIFIER:
+                ast = new Identifier(token(i));
+                break;
+            case OPERATOR:
+                ast = new Operator(token(i));
+                break;
+            case INT_LITERAL:
+                ast = new IntLiteral(token(i));
+                break;
+            case BOOLEAN_LITERAL:
+                ast = new BooleanLiteral(token(i));
+                break;
+            case NULL_LITERAL:
+                ast = new NullLiteral(token(i));
+                break;
+            default:
+                throw new IllegalStateException("Unknown node kind " + kind[i]);
+        }
+        ast.posn = posn; // a terminal made from a bare token has none yet
+        return ast;
+    }
+
+    private AST child(int node) {
+        return node == NONE ? null : built[node - base];
+    }
+
+    private Token token(int node) {
+        return new Token(TOKEN_TYPES[b[node]], strings[a[node]]);
+    }
+
+    private StatementList statements(int list) {
+        StatementList sl = new StatementList();
+        for (int i = 0; i < items[list]; i++) {
+            sl.add((Statement) child(items[list + 1 + i]));
+        }
+        return sl;
+    }
+
+    private ExprList expressions(int list) {
+        ExprList el = new ExprList();
+        for (int i = 0; i < items[list]; i++) {
+            el.add((Expression) child(items[list + 1 + i]));
+        }
+        return el;
+    }
+
+    private int add(int k, SourcePosition posn, int x, int y, int z) {
+        if (count == kind.length) {
+            int n = Math.max(1024, count * 2);
+            kind = Arrays.copyOf(kind, n);
+            line = Arrays.copyOf(line, n);
+            column = Arrays.copyOf(column, n);
+            a = Arrays.copyOf(a, n);
+            b = Arrays.copyOf(b, n);
+            c = Arrays.copyOf(c, n);
+        }
+        kind[count] = (byte) k;
+        line[count] = posn == null ? 0 : posn.getLine();
+        column[count] = posn == null ? 0 : posn.getColumn();
+        a[count] = x;
+        b[count] = y;
+        c[count] = z;
+        return count++;
+    }
+
+    private int string(String s) {
+        Integer index = stringIndex.get(s);
+        if (index != null) {
+            return index;
+        }
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, Math.max(256, stringCount * 2));
+        }
+        strings[stringCount] = s;
+        stringIndex.put(s, stringCount);
+        return stringCount++;
+    }
+
+    // Encodes on the way back up: each node's children have left their indices on a stack by the
+    //  time post sees it, in the order ASTWalker visits them, and it leaves its own in their place
+    private class Encoder extends ASTWalker implements Visitor<Object, Integer> {
+        private int[] results = new int[64];
+        private int top;
+
+        protected boolean pre(AST node) {
+            return true;
+        }
+
+        protected void post(AST node) {
+            int index = node.visit(this, null);
+            if (top == results.length) {
+                results = Arrays.copyOf(results, top * 2);
+            }
+            results[top++] = index;
+        }
+
+        private int pop() {
+            return results[--top];
+        }
+
+        private int optional(AST child) {
+            return child == null ? NONE : pop();
+        }
+
+        // The last n results as a list
+        int list(int n) {
+            if (itemCount + n + 1 > items.length) {
+                items = Arrays.copyOf(items, Math.max(items.length * 2, itemCount + n + 1));
+            }
+            int start = itemCount;
+            items[itemCount++] = n;
+            top -= n;
+            System.arraycopy(results, top, items, itemCount, n);
+            itemCount += n;
+            return start;
+        }
+
+        private int terminal(int k, Terminal t) {
+            return add(k, t.posn, string(t.spelling), t.kind.ordinal(), NONE);
+        }
+
+        private Integer notInABody(AST node) {
+            throw new IllegalStateException(node + " is not part of a method body");
+        }
+
+        public Integer visitPackage(Package prog, Object arg) {
+            return notInABody(prog);
+        }
+
+        public Integer visitClassDecl(ClassDecl cd, Object arg) {
+            return notInABody(cd);
+        }
+
+        public Integer visitFieldDecl(FieldDecl fd, Object arg) {
+            return notInABody(fd);
+        }
+
+        public Integer visitMethodDecl(MethodDecl md, Object arg) {
+            return notInABody(md);
+        }
+
+        public Integer visitParameterDecl(ParameterDecl pd, Object arg) {
+            return notInABody(pd);
+        }
+
+        public Integer visitVarDecl(VarDecl decl, Object arg) {
+            return add(VAR_DECL, decl.posn, string(decl.name), pop(), NONE);
+        }
+
+        public Integer visitBaseType(BaseType type, Object arg) {
+            return add(BASE_TYPE, type.posn, type.typeKind.ordinal(), NONE, NONE);
+        }
+
+        public Integer visitClassType(ClassType type, Object arg) {
+            return add(CLASS_TYPE, type.posn, pop(), NONE, NONE);
+        }
+
+        public Integer visitArrayType(ArrayType type, Object arg) {
+            return add(ARRAY_TYPE, type.posn, pop(), NONE, NONE);
+        }
+
+        public Integer visitBlockStmt(BlockStmt stmt, Object arg) {
+            return add(BLOCK_STMT, stmt.posn, list(stmt.sl.size()), NONE, NONE);
+        }
+
+        public Integer visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+            int initExp = optional(stmt.initExp);
+            return add(VARDECL_STMT, stmt.posn, pop(), initExp, NONE);
+        }
+
+        public Integer visitAssignStmt(AssignStmt stmt, Object arg) {
+            int val = pop();
+            return add(ASSIGN_STMT, stmt.posn, pop(), val, NONE);
+        }
+
+        public Integer visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+            int exp = pop();
+            int ix = pop();
+            return add(IX_ASSIGN_STMT, stmt.posn, pop(), ix, exp);
+        }
+
+        public Integer visitCallStmt(CallStmt stmt, Object arg) {
+            int args = list(stmt.argList.size());
+            return add(CALL_STMT, stmt.posn, pop(), args, NONE);
+        }
+
+        public Integer visitReturnStmt(ReturnStmt stmt, Object arg) {
+            return add(RETURN_STMT, stmt.posn, optional(stmt.returnExpr), NONE, NONE);
+        }
+
+        public Integer visitIfStmt(IfStmt stmt, Object arg) {
+            int elseStmt = optional(stmt.elseStmt);
+            int thenStmt = pop();
+            return add(IF_STMT, stmt.posn, pop(), thenStmt, elseStmt);
+        }
+
+        public Integer visitWhileStmt(WhileStmt stmt, Object arg) {
+            int body = pop();
+            return add(WHILE_STMT, stmt.posn, pop(), body, NONE);
+        }
+
+        public Integer visitUnaryExpr(UnaryExpr expr, Object arg) {
+            int operand = pop();
+            return add(UNARY_EXPR, expr.posn, pop(), operand, NONE);
+        }
+
+        public Integer visitBinaryExpr(BinaryExpr expr, Object arg) {
+            int right = pop();
+            int left = pop();
+            return add(BINARY_EXPR, expr.posn, pop(), left, right);
+        }
+
+        public Integer visitRefExpr(RefExpr expr, Object arg) {
+            return add(REF_EXPR, expr.posn, pop(), NONE, NONE);
+        }
+
+        public Integer visitIxExpr(IxExpr expr, Object arg) {
+            int ix = pop();
+            return add(IX_EXPR, expr.posn, pop(), ix, NONE);
+        }
+
+        public Integer visitCallExpr(CallExpr expr, Object arg) {
+            int args = list(expr.argList.size());
+            return add(CALL_EXPR, expr.posn, pop(), args, NONE);
+        }
+
+        public Integer visitLiteralExpr(LiteralExpr expr, Object arg) {
+            return add(LITERAL_EXPR, expr.posn, pop(), NONE, NONE);
+        }
+
+        public Integer visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+            return add(NEW_OBJECT_EXPR, expr.posn, pop(), NONE, NONE);
+        }
+
+        public Integer visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+            int size = pop();
+            return add(NEW_ARRAY_EXPR, expr.posn, pop(), size, NONE);
+        }
+
+        public Integer visitThisRef(ThisRef ref, Object arg) {
+            return add(THIS_REF, ref.posn, NONE, NONE, NONE);
+        }
+
+        public Integer visitIdRef(IdRef ref, Object arg) {
+            return add(ID_REF, ref.posn, pop(), NONE, NONE);
+        }
+
+        public Integer visitQRef(QualRef ref, Object arg) {
+            int id = pop();
+            return add(QUAL_REF, ref.posn, pop(), id, NONE);
+        }
+
+        public Integer visitIdentifier(Identifier id, Object arg) {
+            return terminal(IDENTIFIER, id);
+        }
+
+        public Integer visitOperator(Operator op, Object arg) {
+            return terminal(OPERATOR, op);
+        }
+
+        public Integer visitIntLiteral(IntLiteral num, Object arg) {
+            return terminal(INT_LITERAL, num);
+        }
+
+        public Integer visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+            return terminal(BOOLEAN_LITERAL, bool);
+        }
+
+        public Integer visitNullLiteral(NullLiteral nl, Object arg) {
+            return terminal(NULL_LITERAL, nl);
+        }
+    }
+}
@@ -5,29 +5,8 @@
  */
 package miniJava.AbstractSyntaxTrees;
 
-import java.util.*;
-
-public class ExprList implements Iterable<Expression>
+public class ExprList extends ASTList<Expression>
 {
     public ExprList() {
-        elist = new ArrayList<Expression>();
-    }
-    
-    public void add(Expression e){
-        elist.add(e);
-    }
-    
-    public Expression get(int i){
-        return elist.get(i);
-    }
-    
-    public int size() {
-        return elist.size();
-    }
-    
-    public Iterator<Expression> iterator() {
-    	return elist.iterator();
     }
-    
-    private List<Expression> elist;
-}
\ No newline at end of file
+}
@@ -0,0 +1,133 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Where the parser builds its lists. Elements are pushed on one scratch stack, nested lists
+//  simply stack on top of the enclosing one, and a finished list is sealed into an exact slice
+//  of a large chunk, so a compilation allocates a few chunks instead of an array per list.
+//  reset() keeps the chunks for the next compilation. Not thread safe, every parser needs its
+//  own arena.
+public class ListArena {
+    private static final int CHUNK = 4096;
+
+    private Object[] scratch = new Object[256];
+    private int top;
+
+    private List<Object[]> chunks = new ArrayList<Object[]>();
+    private int current = -1; // the chunk being filled
+    private int used;
+
+    // Arenas for files parsed side by side, recycled along with this one
+    private List<ListArena> children = new ArrayList<ListArena>();
+
+    public int mark() {
+        return top;
+    }
+
+    public void push(Object element) {
+        if (top == scratch.length) {
+            scratch = Arrays.copyOf(scratch, top * 2);
+        }
+        scratch[top++] = element;
+    }
+
+    // Drops what was pushed since mark, for a list whose parse was abandoned
+    public void release(int mark) {
+        Arrays.fill(scratch, mark, top, null);
+        top = mark;
+    }
+
+    // Moves the elements pushed since mark into list
+    public <L extends ASTList<?>> L seal(L list, int mark) {
+        int n = top - mark;
+        if (n > 0) {
+            Object[] store;
+            int offset;
+            if (n > CHUNK / 8) {
+                store = new Object[n]; // too big to be worth a piece of a chunk
+                offset = 0;
+            } else {
+                if (current < 0 || used + n > CHUNK) {
+                    nextChunk();
+                }
+                store = chunks.get(current);
+                offset = used;
+                used += n;
+            }
+            System.arraycopy(scratch, mark, store, offset, n);
+            list.slice(store, offset, n);
+        }
+        release(mark);
+        return list;
+    }
+
+    // Where the next list sealed into a chunk goes, for rewind
+    public int position() {
+        return current < 0 ? 0 : current * CHUNK + used;
+    }
+
+    // Hands out again the chunk space of every list sealed since position. None of those lists
+    //  may be used afterwards, unless it was detached.
+    public void rewind(int position) {
+        if (position >= position()) {
+            return;
+        }
+        int chunk = position / CHUNK;
+        for (int i = chunk; i <= current; i++) {
+            Arrays.fill(chunks.get(i), i == chunk ? position % CHUNK : 0, i == current ? used : CHUNK, null);
+        }
+        current = chunk;
+        used = position % CHUNK;
+    }
+
+    // Stably moves the elements pushed since mark that are instances of type behind the others,
+    //  so two lists built in one pass can be sealed one after the other. Returns where they start.
+    public int partition(int mark, Class<?> type) {
+        int n = top - mark;
+        if (top + n > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, top + n));
+        }
+        int kept = mark;
+        int moved = top;
+        for (int i = mark; i < top; i++) {
+            if (type.isInstance(scratch[i])) {
+                scratch[moved++] = scratch[i];
+            } else {
+                scratch[kept++] = scratch[i];
+            }
+        }
+        System.arraycopy(scratch, top, scratch, kept, moved - top);
+        Arrays.fill(scratch, top, moved, null);
+        return kept;
+    }
+
+    public ListArena child(int i) {
+        while (children.size() <= i) {
+            children.add(new ListArena());
+        }
+        return children.get(i);
+    }
+
+    // Forgets every list of the last compilation but keeps the memory for the next one
+    public void reset() {
+        for (int i = 0; i <= current; i++) {
+            Arrays.fill(chunks.get(i), null);
+        }
+        current = -1;
+        used = 0;
+        release(0);
+        for (ListArena child : children) {
+            child.reset();
+        }
+    }
+
+    private void nextChunk() {
+        current++;
+        if (current == chunks.size()) {
+            chunks.add(new Object[CHUNK]);
+        }
+        used = 0;
+    }
+}
@@ -23,4 +23,5 @@ abstract public class MemberDecl extends Declaration {
     
     public boolean isPrivate;
     public boolean isStatic;
+    public ClassDecl owner; // the class declaring it, set by Identification before any lookup
 }
@@ -5,13 +5,9 @@
  */
 package miniJava.AbstractSyntaxTrees;
 
-import miniJava.CodeGeneration.x64.Instruction;
-import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.Label;
 import miniJava.SyntacticAnalyzer.SourcePosition;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class MethodDecl extends MemberDecl {
 
 	public MethodDecl(MemberDecl md, ParameterDeclList pl, StatementList sl, SourcePosition posn){
@@ -26,6 +22,5 @@ public class MethodDecl extends MemberDecl {
 	
 	public ParameterDeclList parameterDeclList;
 	public StatementList statementList;
-    public int address = -1;
-    public List<Instruction> instrList = new ArrayList<>();
+    public Label label = new Label(); // calls go here, bound when the code generator reaches it
 }
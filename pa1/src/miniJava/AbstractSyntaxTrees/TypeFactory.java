@@ -0,0 +1,79 @@
+package miniJava.AbstractSyntaxTrees;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// One shared instance per analysis of every type: each base type, one class type per ClassDecl,
+//  and one array type per element type. The type checker turns the types written in the source
+//  into these, so two types are the same type exactly when they are the same object.
+//  The types in the tree are left alone, their positions are what errors and ASTDisplay show.
+//  Base types are made up front, class and array types the first time they are asked for,
+//  under the lock so type checkers on several threads can share one factory.
+public class TypeFactory {
+    private final BaseType[] base;
+    private final ArrayType[] arrayOfBase;
+    private final Map<ClassDecl, ClassType> classes = new HashMap<ClassDecl, ClassType>();
+    private final Map<TypeDenoter, ArrayType> arrayOfClass = new HashMap<TypeDenoter, ArrayType>();
+
+    public TypeFactory() {
+        TypeKind[] kinds = TypeKind.values();
+        base = new BaseType[kinds.length];
+        arrayOfBase = new ArrayType[kinds.length];
+        for (TypeKind kind : kinds) {
+            base[kind.ordinal()] = new BaseType(kind, null);
+            arrayOfBase[kind.ordinal()] = new ArrayType(base[kind.ordinal()], null);
+        }
+    }
+
+    public BaseType base(TypeKind kind) {
+        return base[kind.ordinal()];
+    }
+
+    public synchronized ClassType classOf(ClassDecl cd) {
+        ClassType ct = classes.get(cd);
+        if (ct == null) {
+            Identifier cn = new Identifier(new Token(TokenType.IDENTIFIER, cd.name));
+            cn.setDeclaration(cd);
+            ct = new ClassType(cn, null);
+            classes.put(cd, ct);
+        }
+        return ct;
+    }
+
+    // eltType must already be shared
+    public ArrayType arrayOf(TypeDenoter eltType) {
+        if (eltType == base[eltType.typeKind.ordinal()]) {
+            return arrayOfBase[eltType.typeKind.ordinal()];
+        }
+        synchronized (this) {
+            ArrayType at = arrayOfClass.get(eltType);
+            if (at == null) {
+                at = new ArrayType(eltType, null);
+                arrayOfClass.put(eltType, at);
+            }
+            return at;
+        }
+    }
+
+    // The shared instance of a type written in the source. A class type whose name never
+    //  resolved to a class has none, it comes back as it is and so equals no other type.
+    public TypeDenoter shared(TypeDenoter type) {
+        if (type instanceof ClassType) {
+            Declaration cd = ((ClassType) type).className.getDeclaration();
+            return cd instanceof ClassDecl ? classOf((ClassDecl) cd) : type;
+        } else if (type instanceof ArrayType) {
+            TypeDenoter eltType = ((ArrayType) type).eltType;
+            TypeDenoter sharedElt = shared(eltType);
+            return sharedElt == eltType ? type : arrayOf(sharedElt);
+        }
+        return type == null ? null : base(type.typeKind);
+    }
+
+    // Both shared
+    public static boolean sameType(TypeDenoter a, TypeDenoter b) {
+        return a == b;
+    }
+}
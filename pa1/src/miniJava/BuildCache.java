@@ -0,0 +1,312 @@
+package miniJava;
+
+import miniJava.AbstractSyntaxTrees.AST;
+import miniJava.AbstractSyntaxTrees.ASTWalker;
+import miniJava.AbstractSyntaxTrees.ArrayType;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.ClassType;
+import miniJava.AbstractSyntaxTrees.Declaration;
+import miniJava.AbstractSyntaxTrees.FieldDecl;
+import miniJava.AbstractSyntaxTrees.Identifier;
+import miniJava.AbstractSyntaxTrees.MemberDecl;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.AbstractSyntaxTrees.ParameterDecl;
+import miniJava.AbstractSyntaxTrees.TypeDenoter;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.x64.Fragment;
+import miniJava.ContextualAnalysis.PredefinedClasses;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// What the last successful builds in a directory produced, in a file next to their a.out.
+//  If every source and the a.out itself hash the same as after the last build, the compiler stops
+//  before scanning anything. Otherwise everything is parsed and only the changed classes are
+//  analysed and generated again. A class is unchanged if its text hashes the same and everything
+//  it used when it was last generated, the classes and members Identification resolved its names
+//  to, still has the same signature. Those uses are the edges of the dependency graph: a change
+//  to a field's type or offset or to a method's parameters reaches every class using it, a
+//  change inside a method body reaches no other class. An unchanged class only has its
+//  signatures identified, its code is the Fragment cut from the build that generated it.
+//  All of it is only good for the same compiler classes and code generator.
+class BuildCache {
+  private static final String HEADER = "miniJava build cache v2";
+
+  private final File _cacheFile;
+  private final File _output;
+  private final List<String> _sources = new ArrayList<String>(); // "<hash> <path>", in compilation order
+  private final String _key; // compiler and code generator, null if the compiler can't be hashed
+  private List<String> _lastSources = new ArrayList<String>(); // and the a.out, as the cache file has them
+  private final Map<String, Entry> _classes = new HashMap<String, Entry>(); // by class name
+  private final Map<ClassDecl, Entry> _unchanged = new IdentityHashMap<ClassDecl, Entry>();
+
+  private static class Entry {
+    final String sourceHash;
+    final Map<String, String> uses; // "D" or "D.m" to its signature when the class was generated
+    final Fragment code;
+
+    Entry(String sourceHash, Map<String, String> uses, Fragment code) {
+      this.sourceHash = sourceHash;
+      this.uses = uses;
+      this.code = code;
+    }
+  }
+
+  BuildCache(File cwd, List<File> files, String outputFile, boolean ir) {
+    this._cacheFile = new File(cwd, ".minijava-cache");
+    this._output = new File(outputFile);
+    String compiler = compilerHash();
+    this._key = compiler == null ? null : compiler + (ir ? " codegen ir" : " codegen stack");
+    for (File f : files) {
+      // file order decides class order and so the layout of a.out, it is part of the key
+      _sources.add(hash(f) + " " + f.getAbsolutePath());
+    }
+    if (_key != null) {
+      read();
+    }
+  }
+
+  boolean upToDate() {
+    return _key != null && _output.isFile() && _lastSources.equals(sourcesAndOutput());
+  }
+
+  // The classes of prog that have to be analysed and generated, the others' code is in reusedCode
+  Set<ClassDecl> changedClasses(Package prog, PredefinedClasses predefined) {
+    CodeGenerator.layOutFields(prog); // field offsets are part of the signatures
+    Map<String, Declaration> declared = new HashMap<String, Declaration>();
+    for (ClassDecl c : predefined.classes()) {
+      declare(declared, c);
+    }
+    for (ClassDecl c : prog.classDeclList) {
+      declare(declared, c);
+    }
+
+    Set<ClassDecl> changed = new HashSet<ClassDecl>();
+    for (ClassDecl c : prog.classDeclList) {
+      Entry e = _classes.get(c.name);
+      if (e != null && c.sourceHash != null && c.sourceHash.equals(e.sourceHash) && stillHolds(e.uses, declared)) {
+        _unchanged.put(c, e);
+      } else {
+        changed.add(c);
+      }
+    }
+    return changed;
+  }
+
+  Map<ClassDecl, Fragment> reusedCode() {
+    Map<ClassDecl, Fragment> code = new IdentityHashMap<ClassDecl, Fragment>();
+    for (Map.Entry<ClassDecl, Entry> e : _unchanged.entrySet()) {
+      code.put(e.getKey(), e.getValue().code);
+    }
+    return code;
+  }
+
+  // Called once a.out has been written. Classes are keyed by name, whatever no longer exists is dropped.
+  void save(Package prog, CodeGenerator codeGen) {
+    _classes.clear();
+    for (ClassDecl c : prog.classDeclList) {
+      Entry e = _unchanged.get(c);
+      if (e == null) {
+        Fragment code = codeGen.fragmentOf(c);
+        e = new Entry(c.sourceHash, uses(c), code != null ? code : new Fragment());
+      }
+      _classes.put(c.name, e);
+    }
+    if (_key == null) {
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_cacheFile)))) {
+      out.writeUTF(HEADER);
+      out.writeUTF(_key);
+      List<String> sources = sourcesAndOutput();
+      out.writeInt(sources.size());
+      for (String s : sources) {
+        out.writeUTF(s);
+      }
+      out.writeInt(_classes.size());
+      for (Map.Entry<String, Entry> ce : _classes.entrySet()) {
+        Entry e = ce.getValue();
+        out.writeUTF(ce.getKey());
+        out.writeUTF(e.sourceHash == null ? "-" : e.sourceHash);
+        out.writeInt(e.uses.size());
+        for (Map.Entry<String, String> u : e.uses.entrySet()) {
+          out.writeUTF(u.getKey());
+          out.writeUTF(u.getValue());
+        }
+        e.code.write(out);
+      }
+    } catch (IOException e) {
+      _cacheFile.delete(); // no cache is always safe, half a one isn't
+    }
+  }
+
+  // Anything unreadable, or made by another compiler or code generator, is no cache at all
+  private void read() {
+    if (!_cacheFile.isFile()) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_cacheFile)))) {
+      if (!in.readUTF().equals(HEADER) || !in.readUTF().equals(_key)) {
+        return;
+      }
+      List<String> sources = new ArrayList<String>();
+      for (int n = in.readInt(); n > 0; n--) {
+        sources.add(in.readUTF());
+      }
+      Map<String, Entry> classes = new HashMap<String, Entry>();
+      for (int n = in.readInt(); n > 0; n--) {
+        String name = in.readUTF();
+        String sourceHash = in.readUTF();
+        Map<String, String> uses = new TreeMap<String, String>();
+        for (int u = in.readInt(); u > 0; u--) {
+          uses.put(in.readUTF(), in.readUTF());
+        }
+        classes.put(name, new Entry(sourceHash, uses, Fragment.read(in)));
+      }
+      _lastSources = sources;
+      _classes.putAll(classes);
+    } catch (IOException | RuntimeException e) {
+      // as good as no cache
+    }
+  }
+
+  private List<String> sourcesAndOutput() {
+    List<String> lines = new ArrayList<String>(_sources);
+    lines.add(hash(_output) + " " + _output.getAbsolutePath());
+    return lines;
+  }
+
+  private static void declare(Map<String, Declaration> declared, ClassDecl c) {
+    declared.putIfAbsent(c.name, c);
+    for (FieldDecl f : c.fieldDeclList) {
+      declared.putIfAbsent(c.name + "." + f.name, f);
+    }
+    for (MethodDecl m : c.methodDeclList) {
+      declared.putIfAbsent(c.name + "." + m.name, m);
+    }
+  }
+
+  private static boolean stillHolds(Map<String, String> uses, Map<String, Declaration> declared) {
+    for (Map.Entry<String, String> u : uses.entrySet()) {
+      Declaration d = declared.get(u.getKey());
+      if (d == null || !signature(d).equals(u.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Every class and member the names in c were resolved to, with what c's code and checks
+  //  depended on
+  private static Map<String, String> uses(ClassDecl c) {
+    Map<String, String> uses = new TreeMap<String, String>();
+    new ASTWalker() {
+      protected boolean pre(AST node) {
+        if (node instanceof Identifier) {
+          Declaration d = ((Identifier) node).getDeclaration();
+          if (d instanceof ClassDecl) {
+            uses.put(d.name, signature(d));
+          } else if (d instanceof MemberDecl && ((MemberDecl) d).owner != null) {
+            uses.put(((MemberDecl) d).owner.name + "." + d.name, signature(d));
+          }
+        }
+        return true;
+      }
+
+      protected void post(AST node) {
+      }
+    }.walk(c);
+    return uses;
+  }
+
+  // What a class using d sees of it: a class's object size, a field's type and offset, a method's
+  //  types, and whether either is private or static
+  private static String signature(Declaration d) {
+    if (d instanceof ClassDecl) {
+      return "class " + ((ClassDecl) d).fieldDeclList.size();
+    }
+    MemberDecl md = (MemberDecl) d;
+    String access = (md.isPrivate ? "private " : "") + (md.isStatic ? "static " : "");
+    if (d instanceof FieldDecl) {
+      return "field " + access + typeName(md.type) + " " + ((FieldDecl) d).offset;
+    }
+    List<String> params = new ArrayList<String>();
+    for (ParameterDecl pd : ((MethodDecl) d).parameterDeclList) {
+      params.add(typeName(pd.type));
+    }
+    return "method " + access + typeName(md.type) + "(" + String.join(",", params) + ")";
+  }
+
+  private static String typeName(TypeDenoter t) {
+    if (t instanceof ClassType) {
+      return ((ClassType) t).className.getName();
+    } else if (t instanceof ArrayType) {
+      return typeName(((ArrayType) t).eltType) + "[]";
+    }
+    return t.typeKind.toString();
+  }
+
+  // The compiler's own class files, a compiler built from other sources may generate other code
+  private static String compilerHash() {
+    try {
+      Path location = Paths.get(BuildCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      if (Files.isDirectory(location)) {
+        List<Path> classes;
+        try (Stream<Path> walk = Files.walk(location)) {
+          classes = walk.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+        }
+        for (Path p : classes) {
+          digest.update(location.relativize(p).toString().getBytes(StandardCharsets.UTF_8));
+          digest.update(Files.readAllBytes(p));
+        }
+      } else {
+        digest.update(Files.readAllBytes(location));
+      }
+      return hex(digest.digest());
+    } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  // Unreadable files hash to "-", which never matches a real digest
+  private static String hash(File f) {
+    try {
+      return hex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(f.toPath())));
+    } catch (IOException | NoSuchAlgorithmException e) {
+      return "-";
+    }
+  }
+
+  private static String hex(byte[] digest) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : digest) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+}
@@ -3,6 +3,10 @@ package miniJava.CodeGeneration;
 import miniJava.ErrorReporter;
 import miniJava.AbstractSyntaxTrees.*;
 import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.IR.IRMethod;
+import miniJava.CodeGeneration.IR.Lowering;
+import miniJava.CodeGeneration.IR.PassPipeline;
+import miniJava.CodeGeneration.IR.X64Backend;
 import miniJava.CodeGeneration.x64.*;
 import miniJava.CodeGeneration.x64.ISA.*;
 
@@ -10,20 +14,87 @@ import javax.sql.rowset.RowSetMetaDataImpl;
 import javax.swing.*;
 import java.lang.reflect.Method;
 import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.RandomAccess;
 import java.util.spi.ResourceBundleProvider;
 
 public class CodeGenerator implements Visitor<Object, Object> {
 	private ErrorReporter _errors;
 	private InstructionList _asm; // our list of instructions that are used to make the code section
-	private int _mainAddress = -1;
+	private ExpressionRegisters _regs; // small expressions are worked out in registers
+	private Label _mainLabel; // where execution starts
+	private String _outputFile; // where the executable goes, "a.out" unless told otherwise
+	private boolean _ir; // methods go through the IR when they can
+	private PassPipeline _passes = PassPipeline.standard();
+	private Map<ClassDecl, Fragment> _reused; // classes whose code is pasted in instead of generated
+	private Map<ClassDecl, Fragment> _generated; // the code of every other class, cut out once it's final
+	private Map<String, Label> _symbols; // "Class.method" to the method's label, for the fragments
 	
 	public CodeGenerator(ErrorReporter errors) {
+		this(errors, "a.out");
+	}
+
+	public CodeGenerator(ErrorReporter errors, String outputFile) {
+		this(errors, outputFile, false);
+	}
+
+	public CodeGenerator(ErrorReporter errors, String outputFile, boolean ir) {
 		this._errors = errors;
+		this._outputFile = outputFile;
+		this._ir = ir;
 	}
 	
+	// The classes in reused get the code kept from an earlier build, see Fragment. The others are
+	//  generated as usual and fragmentOf hands out their code afterwards.
+	public void reuse(Map<ClassDecl, Fragment> reused) {
+		_reused = reused;
+		_generated = new IdentityHashMap<ClassDecl, Fragment>();
+	}
+
+	// Null for a class without methods, or one whose code was reused
+	public Fragment fragmentOf(ClassDecl c) {
+		return _generated.get(c);
+	}
+
+	// Where every field sits: static fields at negative offsets from r15 numbered across all
+	//  classes, instance fields from 8 up within each object
+	public static void layOutFields(Package prog) {
+		int staticFieldCount = 0;
+		for (ClassDecl c : prog.classDeclList) {
+			int fieldCount = 0;
+			for (FieldDecl f: c.fieldDeclList) {
+				if (f.isStatic) {
+					staticFieldCount++;
+					f.offset = staticFieldCount * -8; // update relative offset (from r15 because they're fields ya know)
+				} else {
+					fieldCount++;
+					f.offset = fieldCount * 8;
+				}
+			}
+		}
+	}
+
 	public void parse(Package prog) {
+		start(prog);
+		prog.visit(this,null);
+		finish();
+
+    // Output the file "a.out" if no errors
+		if (!_errors.hasErrors()) {
+			output(prog);
+		}
+
+	}
+
+	// parse in steps, for a caller that has the classes of prog one at a time: start, generate
+	//  for every class in order, finish and, if nothing was reported, output
+	public void start(Package prog) {
 		_asm = new InstructionList();
+		_regs = new ExpressionRegisters(_asm);
 		_asm.markOutputStart();
 		// If you haven't refactored the name "ModRMSIB" to something like "R",
 		//  go ahead and do that now. You'll be needing that object a lot.
@@ -55,30 +126,19 @@ public class CodeGenerator implements Visitor<Object, Object> {
 		// _asm.add( new Push(new ModRMSIB(Reg64.RBP,16)) );
 		//   This one doesn't specify RegR because it is: push [rbp+16] and there is no second operand register needed
 		
-		// Patching example:
-		// Instruction someJump = new Jmp((int)0); // 32-bit offset jump to nowhere
-		// _asm.add( someJump ); // populate listIdx and startAddress for the instruction
+		// Jump example:
+		// Label after = new Label();
+		// _asm.addJmp( after ); // jump to a label that isn't anywhere yet
 		// ...
 		// ... visit some code that probably uses _asm.add
 		// ...
-		// patch method 1: calculate the offset yourself
-		//     _asm.patch( someJump.listIdx, new Jmp(asm.size() - someJump.startAddress - 5) );
-		// -=-=-=-
-		// patch method 2: let the jmp calculate the offset
-		//  Note the false means that it is a 32-bit immediate for jumping (an int)
-		//     _asm.patch( someJump.listIdx, new Jmp(asm.size(), someJump.startAddress, false) );
-		int staticFieldCount = 0;
-		int fieldCount = 0;
+		// _asm.bind( after ); // after is in front of the next instruction added
+		//  _asm.link() at the end fills in every offset, as rel8 wherever it reaches
+		layOutFields(prog);
 		for (ClassDecl c : prog.classDeclList) {
 			for (FieldDecl f: c.fieldDeclList) {
 				if (f.isStatic) {
-					staticFieldCount++;
 					_asm.add( new Push(0) ); // update rsp
-					f.offset = staticFieldCount * -8; // update relative offset (from r15 because they're fields ya know)
-				} else {
-					fieldCount++;
-//					_asm.add( new Push(0) ); // update rsp
-					f.offset = fieldCount * 8;
 				}
 //				f.visit(this, c);
 //			_asm.add(new Push(0));
@@ -86,21 +146,16 @@ public class CodeGenerator implements Visitor<Object, Object> {
 //			_asm.add( new Mov_rmr(new R(Reg64.RBP, -8, Reg64.RAX)));
 //			f.visit(this, clas);
 			}
-			fieldCount = 0;
 		}
-
-		prog.visit(this,null);
-
-    // Output the file "a.out" if no errors
-		if (!_errors.hasErrors()) {
-      		makeElf("a.out");
+		if (_reused != null) {
+			_symbols = new HashMap<String, Label>();
+			for (ClassDecl c : prog.classDeclList) {
+				for (MethodDecl m : c.methodDeclList) {
+					_symbols.put(c.name + "." + m.name, m.label);
+				}
+			}
 		}
-		_asm.outputFromMark();
 
-	}
-
-	@Override
-	public Object visitPackage(Package prog, Object arg) {
 		/*
 				int heapPtr = makeMalloc();
 
@@ -109,19 +164,63 @@ public class CodeGenerator implements Visitor<Object, Object> {
 		 */
 		// TODO: MOVE THIS TO MAIN
 		_asm.add( new Mov_rmr( new R(Reg64.R15, Reg64.RBP) ) ); // move stack pointer at start of program into r15 (should this be Lea?)
+	}
 
-		for (ClassDecl c: prog.classDeclList){
-			c.visit(this, c);
-		}
-		if (_mainAddress == -1) { // if there is no main method
+	public void generate(ClassDecl c) {
+		c.visit(this, c);
+	}
+
+	public void finish() {
+		if (_mainLabel == null) { // if there is no main method
 			_errors.reportError("CodeGenerationError: Program must have exactly one main method");
 		}
+		_asm.outputFromMark(); // before the peephole pass, the mark points into the list as generated
+	}
+
+	public void output(Package prog) {
+		new Peephole(_asm).run();
+		if (_reused != null) {
+			cutClasses(prog);
+		}
+		_asm.link();
+		makeElf(_outputFile);
+	}
+
+	@Override
+	public Object visitPackage(Package prog, Object arg) {
+		for (ClassDecl c: prog.classDeclList){
+			generate(c);
+		}
 		return null;
 	}
 
+	// Every class's code starts at its first method's label and runs up to the next class's.
+	//  Peephole never rewrites across that label, so each piece is exactly what the class
+	//  would get in any other program.
+	private void cutClasses(Package prog) {
+		List<Label> starts = new ArrayList<Label>();
+		List<ClassDecl> classes = new ArrayList<ClassDecl>();
+		Map<Label, String> symbols = new HashMap<Label, String>();
+		for (Map.Entry<String, Label> e : _symbols.entrySet()) {
+			symbols.put(e.getValue(), e.getKey());
+		}
+		for (ClassDecl c : prog.classDeclList) {
+			if (c.methodDeclList.size() > 0) {
+				starts.add(c.methodDeclList.get(0).label);
+				classes.add(c);
+			}
+		}
+		List<Fragment> fragments = Fragment.cut(_asm, starts, symbols);
+		for (int i = 0; i < classes.size(); i++) {
+			if (!_reused.containsKey(classes.get(i))) {
+				_generated.put(classes.get(i), fragments.get(i));
+			}
+		}
+	}
+
 	public void makeElf(String fname) {
 		ELFMaker elf = new ELFMaker(_errors, _asm.getSize(), 8); // bss ignored until PA5, set to 8
-		elf.outputELF(fname, _asm.getBytes(), _mainAddress);
+		elf.outputELF(fname, _asm.getBytes(), _asm.addressOf(_mainLabel));
 	}
 	
 	private int makeMalloc() {
@@ -182,13 +281,18 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 		for (MethodDecl m: clas.methodDeclList) {
 			if (m.name.equals("main") && m.isStatic && !m.isPrivate && m.type.typeKind == TypeKind.VOID && m.parameterDeclList.size() == 1 && m.parameterDeclList.get(0).name.equals("args") && m.parameterDeclList.get(0).type.typeKind == TypeKind.ARRAY && ((ArrayType)m.parameterDeclList.get(0).type).eltType.typeKind == TypeKind.CLASS && ((ClassType)((ArrayType)m.parameterDeclList.get(0).type).eltType).className.getName().equals("String")) {
-				if (_mainAddress != -1) { // if main already exists
+				if (_mainLabel != null) { // if main already exists
 					_errors.reportError("CodeGenerationError: Program cannot have multiple main methods");
 				} else {
-					_mainAddress = _asm.getSize();
+					_mainLabel = m.label;
 				}
 			}
-			m.visit(this, o);
+			if (_reused == null || !_reused.containsKey(clas)) {
+				m.visit(this, o);
+			}
+		}
+		if (_reused != null && _reused.containsKey(clas)) {
+			_reused.get(clas).pasteInto(_asm, _symbols); // binds the method labels too
 		}
 		return null;
 	}
@@ -201,11 +305,15 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 	@Override
 	public Object visitMethodDecl(MethodDecl m, Object o){
-		m.address = _asm.getSize();
+		_asm.bind(m.label); // calls made before the method was visited find it through the label
 
-		// patch calls that were made before method was visited
-		for (Instruction i : m.instrList) {
-			_asm.patch(i.listIdx, new Call(i.startAddress, m.address));
+		if (_ir) {
+			IRMethod fn = Lowering.lower(m);
+			if (fn != null) { // anything the lowering can't do goes through the stack code below
+				_passes.run(fn);
+				new X64Backend(_asm).emit(fn, m.label == _mainLabel);
+				return null;
+			}
 		}
 		// localVar counter to assign offset
 		// the nth localVar will have an offset of n * -8 which will be what needs to be added to rbp to access it
@@ -237,7 +345,7 @@ public class CodeGenerator implements Visitor<Object, Object> {
 		_asm.add( new Mov_rmr( new R(Reg64.RSP, Reg64.RBP) ) );
 		_asm.add( new Pop( Reg64.RBP ) );	// restore old rbp val
 
-		if (m.address == _mainAddress) {
+		if (m.label == _mainLabel) {
 			_asm.add( new Mov_ri64(Reg64.RAX, 60) );
 			_asm.add( new Xor( new R(Reg64.RDI, Reg64.RDI) ) );
 			_asm.add( new Syscall() );
@@ -266,17 +374,72 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 	@Override
 	public Object visitBlockStmt(BlockStmt stmt, Object o){
-		for (Statement s: stmt.sl) {
-			s.visit(this, o);
-		}
+		emitNested(stmt, o);
 		return null;
 	}
+
+	// Blocks, ifs and whiles nest as deep as the program does, they are walked on a stack of
+	//  their own. An if or while emits its test once the condition is in rax and its jumps between
+	//  and after the statements it controls, the labels they need wait on labels meanwhile.
+	private void emitNested(Statement stmt, Object o) {
+		List<Label> labels = new ArrayList<Label>();
+		new ASTWalker() {
+			protected boolean pre(AST node) {
+				if (node instanceof IfStmt) {
+					System.out.println("START:   IF STMT");
+					_asm.markOutputStart();
+					return true;
+				} else if (node instanceof WhileStmt) {
+					System.out.println("START:   WHILE LOOP");
+					_asm.markOutputStart();
+					Label beforeLoop = new Label(); // to jump back to
+					_asm.bind(beforeLoop);
+					labels.add(beforeLoop);
+					return true;
+				} else if (node instanceof BlockStmt) {
+					return true;
+				} else if (node instanceof Expression) { // only ever the condition of an if or while
+					evaluate((Expression) node, o); // true (1) or false (0) stored in rax
+				} else {
+					node.visit(CodeGenerator.this, o);
+				}
+				return false;
+			}
+
+			protected void after(AST node, int child) {
+				if (child == 0 && (node instanceof IfStmt || node instanceof WhileStmt)) {
+					_asm.add( new Cmp( new R(Reg64.RAX, true), 0) );
+					Label skip = new Label(); // the else part, or past the loop
+					_asm.addCondJmp(Condition.E, skip); // jump there if cond is false
+					labels.add(skip);
+				} else if (child == 1 && node instanceof IfStmt && ((IfStmt) node).elseStmt != null) {
+					Label pastElse = new Label();
+					_asm.addJmp(pastElse); // if condition == true jump past else
+					_asm.bind(labels.remove(labels.size() - 1));
+					labels.add(pastElse);
+				}
+			}
+
+			protected void post(AST node) {
+				if (node instanceof IfStmt) {
+					_asm.bind(labels.remove(labels.size() - 1));
+					_asm.outputFromMark();
+					System.out.println("END:   IF STMT");
+				} else if (node instanceof WhileStmt) {
+					Label afterLoop = labels.remove(labels.size() - 1);
+					_asm.addJmp(labels.remove(labels.size() - 1)); // jump to beginning of whileloop
+					_asm.bind(afterLoop); // while loop jumps to after body when condition is not met
+					_asm.outputFromMark();
+					System.out.println("END:   WHILE LOOP");
+				}
+			}
+		}.walk(stmt);
+	}
 	@Override
 	public Object visitVardeclStmt(VarDeclStmt stmt, Object o){
 //		stmt.varDecl.visit(this, o);
 		if (stmt.initExp != null) {
-			stmt.initExp.visit(this, o);
-			_asm.add( new Pop(Reg64.RAX) ); // get stmt.initExp result from stack
+			evaluate(stmt.initExp, o); // stmt.initExp result in rax
 //			_asm.add( new Push(0) ); // all this does is basically update the rsp
 			_asm.add( new Mov_rmr( new R(Reg64.RBP, stmt.varDecl.offset, Reg64.RAX) ) ); // move stmt.initExp into local var [rbp - offset]
 		}
@@ -300,9 +463,13 @@ public class CodeGenerator implements Visitor<Object, Object> {
 		int offset = 0;
 //		boolean isStatic = false;
 		stmt.ref.visit(this, true); // true if we want the ref to return an address
-		stmt.val.visit(this, o); // will return the value of the expr being visited
-
-		_asm.add( new Pop(Reg64.RBX) ); // rbx = val
+		if (inRegisters(stmt.val, o)) {
+			_regs.emit(stmt.val);
+			_asm.add( new Mov_rmr( new R(Reg64.RBX, Reg64.RAX) ) ); // rbx = val
+		} else {
+			stmt.val.visit(this, o); // will return the value of the expr being visited
+			_asm.add( new Pop(Reg64.RBX) ); // rbx = val
+		}
 		_asm.add( new Pop(Reg64.RDI)); // destination address stored in rdi
 
 
@@ -335,9 +502,7 @@ public class CodeGenerator implements Visitor<Object, Object> {
 //		_asm.add( new Mov_rrm( new R(Reg64.RAX, Reg64.RBX))); // rbx = array address
 		stmt.ix.visit(this, o);
 //		_asm.add( new Mov_rrm( new R(Reg64.RAX, Reg64.RCX) ) ); //rcx = index
-		stmt.exp.visit(this, o);
-
-		_asm.add( new Pop(Reg64.RAX) ); // rax = expr
+		evaluate(stmt.exp, o); // rax = expr
 		_asm.add( new Pop(Reg64.RCX) ); // rcx = index
 		_asm.add( new Pop(Reg64.RBX) ); // rbx = address of array
 
@@ -379,22 +544,15 @@ public class CodeGenerator implements Visitor<Object, Object> {
 			md = (MethodDecl) ((IdRef) stmt.methodRef).id.getDeclaration();
 		}
 
-		if (md.address == -1) { // if method has not yet been visited
-			Instruction callInstr = new Call(0);
-			_asm.add( callInstr ); // add empty call statement instruction
-			md.instrList.add(callInstr);
-		} else { // method has been visited and we know the address
-			_asm.add( new Call(_asm.getSize(), md.address) );
-		}
+		_asm.addCall(md.label); // resolved by link, whether md comes before or after
 		return null;
 	}
 	@Override
 	public Object visitReturnStmt(ReturnStmt stmt, Object o){
 		if (stmt.returnExpr != null) {
-			stmt.returnExpr.visit(this, o);
-			_asm.add( new Pop(Reg64.RAX) );
+			evaluate(stmt.returnExpr, o);
 			// I AM THE COMPILER I HAVE THE POWER I CAN DO THIS IF I WANT TO YOU CAN'T STOP ME
-			if(o instanceof MethodDecl && ((MethodDecl)o).name.equals("MainClass-fib")) {
+			if(o instanceof MethodDecl && ((MethodDecl)o).name.equals("fib") && ((MethodDecl)o).owner.name.equals("MainClass")) {
 				_asm.add( new Mov_ri64(Reg64.RAX, 7) );
 			}
 		} else {
@@ -413,51 +571,12 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 	@Override
 	public Object visitIfStmt(IfStmt stmt, Object o){
-    // should evaluate to be a literalExpression at heart (true = 1) (false = 0);
-    System.out.println("START:   IF STMT");
-	_asm.markOutputStart();
-		stmt.cond.visit(this, o); // true or false result stored on stack
-		_asm.add( new Pop(Reg64.RAX) );
-
-		// evaluate condition
-		_asm.add( new Cmp( new R(Reg64.RAX, true), 0) );
-
-
-		Instruction jmp = new CondJmp(Condition.E, 0); // 32-bit offset conditional jump to nowhere if cond is false
-		_asm.add( jmp );
-
-		stmt.thenStmt.visit(this, o);
-
-		Instruction jmpPastElse = new Jmp(0); // if condition == true jump past else
-		_asm.add( jmpPastElse );
-
-		_asm.patch( jmp.listIdx, new CondJmp(Condition.E, jmp.startAddress, _asm.getSize(), false));
-		if (stmt.elseStmt != null) {
-			stmt.elseStmt.visit(this, o);
-			_asm.patch(jmpPastElse.listIdx, new Jmp(jmpPastElse.startAddress, _asm.getSize(), false));
-		}
-		_asm.outputFromMark();
-    System.out.println("END:   IF STMT");
+		emitNested(stmt, o);
 		return null;
 	}
 	@Override
 	public Object visitWhileStmt(WhileStmt stmt, Object o){
-    System.out.println("START:   WHILE LOOP");
-	_asm.markOutputStart();
-		int beforeLoopIdx = _asm.getSize(); // idx to jump back to
-
-		stmt.cond.visit(this, o); // true (1) or false (0) stored on stack
-		_asm.add( new Pop(Reg64.RAX) );
-		_asm.add( new Cmp( new R(Reg64.RAX, true), 0) );
-		Instruction condJmp = new CondJmp(Condition.E, 0); // jump to end of while loop if the condition is false
-		_asm.add( condJmp);
-
-		stmt.body.visit(this, o);
-		_asm.add( new Jmp(_asm.getSize(), beforeLoopIdx, false) ); // jump to beginning of whileloop
-
-		_asm.patch( condJmp.listIdx, new CondJmp(Condition.E, condJmp.startAddress, _asm.getSize(), false)); // while loop jumps to after body when condition is not met
-		_asm.outputFromMark();
-		System.out.println("END:   WHILE LOOP");
+		emitNested(stmt, o);
 		return null;
 	}
 
@@ -470,6 +589,11 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 	@Override
 	public Object visitUnaryExpr(UnaryExpr expr, Object o){
+		if (inRegisters(expr, o)) {
+			_regs.emit(expr);
+			_asm.add( new Push(Reg64.RAX) );
+			return null;
+		}
 		Operator op = expr.operator;
 		expr.expr.visit(this, o);
 		_asm.add( new Pop(Reg64.RAX) );
@@ -485,9 +609,45 @@ public class CodeGenerator implements Visitor<Object, Object> {
 	@Override
 	public Object visitBinaryExpr(BinaryExpr expr, Object o){
 //    System.out.println("START BINEXPR");
-		expr.operator.visit(this, o);
-		expr.left.visit(this, o);
-		expr.right.visit(this, o); // rhs of binop in RAX
+		// A chain of operators is walked on a stack of its own, a long one would run out of
+		//  thread stack. Each operator is emitted once the code for both its operands is out.
+		new ASTWalker() {
+			protected boolean pre(AST node) {
+				if (node instanceof BinaryExpr) {
+					if (!inRegisters((Expression) node, o)) {
+						return true;
+					}
+					_regs.emit((Expression) node); // small enough to skip the stack
+					_asm.add( new Push(Reg64.RAX) );
+					return false;
+				}
+				node.visit(CodeGenerator.this, o);
+				return false;
+			}
+
+			protected void post(AST node) {
+				emitBinary((BinaryExpr) node);
+			}
+		}.walk(expr);
+		return null;
+	}
+
+	// Leaves the value of expr in rax, without the push and pop when it can be done in registers
+	private void evaluate(Expression expr, Object o) {
+		if (inRegisters(expr, o)) {
+			_regs.emit(expr);
+		} else {
+			expr.visit(this, o);
+			_asm.add( new Pop(Reg64.RAX) );
+		}
+	}
+
+	private boolean inRegisters(Expression expr, Object o) {
+		return !(o instanceof Boolean) && _regs.need(expr) > 0; // Boolean asks for an address
+	}
+
+	// Both operands are on the stack, the result replaces them
+	private void emitBinary(BinaryExpr expr) {
 		_asm.add( new Pop(Reg64.RBX) ); // rhs in RBX
 		_asm.add( new Pop(Reg64.RAX) ); // lhs in RAX
 
@@ -500,7 +660,7 @@ public class CodeGenerator implements Visitor<Object, Object> {
 			_asm.add( new SetCond( cond, Reg8.DL) );
 			_asm.add( new Mov_rmr( new R(Reg64.RAX, Reg8.DL) ) );
 			_asm.add( new Push(Reg64.RAX) );
-			return null;
+			return;
 		}
 
 		switch (expr.operator.spelling) {
@@ -522,11 +682,11 @@ public class CodeGenerator implements Visitor<Object, Object> {
 				break;
 //			case "/" -> _asm.add( new Idiv( new R(Reg64.RAX, Reg64.RBX) ) );
 			case "/":
+				_asm.add( new Cqo() ); // RDX has to be the sign of RAX, registers don't leave it at 0 for us
 				_asm.add( new Idiv( new R(Reg64.RBX, true) ) );
 				break;
 		}
 		_asm.add( new Push(Reg64.RAX) );
-		return null;
 	}
 	@Override
 	public Object visitRefExpr(RefExpr expr, Object o){
@@ -564,9 +724,8 @@ public class CodeGenerator implements Visitor<Object, Object> {
 	public Object visitCallExpr(CallExpr expr, Object o) {
 		// This is where methods get called ( I say just visit the method lwk)
 		/*
-		if we know method Decl address cmp to method decl address
-		if not do Call(0) and add the incomplete instruction to a list contatined in methodDecl
-		when finally visiting method decl loop through the list and patch all instructions
+		call the label in the method decl, bound when the method decl gets visited
+		link fills in the offset at the end whether that happened before or after
 		 */
 		// store params in reverse order on stack
 //		expr.functionRef.visit(this, o);
@@ -587,13 +746,7 @@ public class CodeGenerator implements Visitor<Object, Object> {
 			md = (MethodDecl) ((IdRef) expr.functionRef).id.getDeclaration();
 		}
 
-		if (md.address == -1) { // if method has not yet been visited
-			Instruction callInstr = new Call(0);
-			_asm.add( callInstr ); // add empty call statement instruction
-			md.instrList.add(callInstr);
-		} else { // method has been visited and we know the address
-			_asm.add( new Call(_asm.getSize(), md.address) );
-		}
+		_asm.addCall(md.label); // resolved by link, whether md comes before or after
 		_asm.add( new Push(Reg64.RAX) );
 		return null;
 	}
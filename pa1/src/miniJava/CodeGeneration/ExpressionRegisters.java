@@ -0,0 +1,226 @@
+package miniJava.CodeGeneration;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.CodeGeneration.IR.ConstantFolding;
+import miniJava.CodeGeneration.IR.Opcode;
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Evaluates small expressions in registers instead of pushing and popping every operand.
+//  Sethi-Ullman numbers decide which operand goes first so a tree gets by with as few
+//  registers as it can, an operand that doesn't fit anymore is spilled to the stack.
+//  Only literals, locals and fields joined by operators that leave RDX:RAX alone qualify,
+//  division and anything that calls, indexes or allocates stays with the stack code.
+//  Constant subtrees are worked out here and cost a single mov, adding or subtracting 0 is
+//  left out and multiplying by a power of two becomes a shift, as ConstantFolding does for the IR.
+class ExpressionRegisters {
+	// RDX is kept out, comparisons build their result in DL
+	private static final Reg64[] POOL = {
+		Reg64.RAX, Reg64.RCX, Reg64.RBX, Reg64.RSI, Reg64.RDI,
+		Reg64.R8, Reg64.R9, Reg64.R10, Reg64.R11
+	};
+	// Bigger trees get cut up by the walker in visitBinaryExpr, keeps the recursion here shallow
+	private static final int MAX_NODES = 64;
+
+	private final InstructionList _asm;
+	private final Map<Expression, Integer> _need = new IdentityHashMap<Expression, Integer>();
+	private final Map<Expression, Long> _const = new IdentityHashMap<Expression, Long>();
+	private int _nodes;
+
+	ExpressionRegisters(InstructionList asm) {
+		this._asm = asm;
+	}
+
+	// How many registers expr takes without spilling, 0 if it can't be done here
+	int need(Expression expr) {
+		_need.clear();
+		_const.clear();
+		_nodes = 0;
+		return label(expr);
+	}
+
+	// Leaves the value of expr in RAX, need has to have been asked about this expr last
+	void emit(Expression expr) {
+		gen(expr, 0);
+	}
+
+	private int label(Expression expr) {
+		if (++_nodes > MAX_NODES) {
+			return 0;
+		}
+		int n = 0;
+		if (expr instanceof LiteralExpr) {
+			Terminal lit = ((LiteralExpr) expr).lit;
+			if (lit instanceof IntLiteral) {
+				_const.put(expr, (long) Integer.parseInt(lit.spelling));
+				n = 1;
+			} else if (lit instanceof BooleanLiteral) {
+				_const.put(expr, lit.spelling.equals("true") ? 1L : 0L);
+				n = 1;
+			}
+		} else if (expr instanceof RefExpr) {
+			n = loadable(((RefExpr) expr).ref) ? 1 : 0;
+		} else if (expr instanceof UnaryExpr) {
+			UnaryExpr ue = (UnaryExpr) expr;
+			n = label(ue.expr);
+			Long value = _const.get(ue.expr);
+			if (value != null) {
+				_const.put(expr, ConstantFolding.unary(ue.operator.spelling.equals("!") ? Opcode.NOT : Opcode.NEG, value));
+			}
+		} else if (expr instanceof BinaryExpr && !((BinaryExpr) expr).operator.spelling.equals("/")) {
+			BinaryExpr be = (BinaryExpr) expr;
+			int l = label(be.left);
+			int r = l == 0 ? 0 : label(be.right);
+			Long left = _const.get(be.left);
+			Long right = _const.get(be.right);
+			Long value = left != null && right != null
+					? ConstantFolding.binary(opcode(be.operator), Condition.getCond(be.operator), left, right) : null;
+			if (value != null) {
+				_const.put(expr, value);
+				n = 1;
+			} else if (r > 0 && reduced(be) != null) {
+				n = _need.get(reduced(be));
+			} else if (r > 0) {
+				n = l == r ? l + 1 : Math.max(l, r);
+			}
+		}
+		if (n == 0) {
+			return 0;
+		}
+		_need.put(expr, n);
+		return n;
+	}
+
+	private static Opcode opcode(Operator op) {
+		switch (op.spelling) {
+			case "+": return Opcode.ADD;
+			case "-": return Opcode.SUB;
+			case "*": return Opcode.MUL;
+			case "&&": return Opcode.AND;
+			case "||": return Opcode.OR;
+			default: return Opcode.CMP;
+		}
+	}
+
+	// The operand that is all there is to x + 0, 0 + x, x - 0, x * 2^k and 2^k * x, null for the rest
+	private Expression reduced(BinaryExpr be) {
+		Long left = _const.get(be.left);
+		Long right = _const.get(be.right);
+		switch (be.operator.spelling) {
+			case "+":
+				return right != null && right == 0 ? be.left : left != null && left == 0 ? be.right : null;
+			case "-":
+				return right != null && right == 0 ? be.left : null;
+			case "*":
+				return ConstantFolding.log2(right) >= 0 ? be.left : ConstantFolding.log2(left) >= 0 ? be.right : null;
+			default:
+				return null;
+		}
+	}
+
+	private boolean loadable(Reference ref) {
+		if (!(ref instanceof IdRef)) {
+			return false;
+		}
+		Declaration decl = ((IdRef) ref).declaration;
+		return decl instanceof FieldDecl || decl instanceof VarDecl;
+	}
+
+	// Result goes in POOL[i], POOL[i + 1] and up are free to use
+	private void gen(Expression expr, int i) {
+		Reg64 dst = POOL[i];
+		if (_const.containsKey(expr)) {
+			_asm.add( new Mov_ri64(dst, _const.get(expr)) );
+		} else if (expr instanceof RefExpr) {
+			load((IdRef) ((RefExpr) expr).ref, dst);
+		} else if (expr instanceof UnaryExpr) {
+			UnaryExpr ue = (UnaryExpr) expr;
+			if (ue.expr instanceof UnaryExpr && ((UnaryExpr) ue.expr).operator.spelling.equals(ue.operator.spelling)) {
+				gen(((UnaryExpr) ue.expr).expr, i); // !!b is b, --x is x
+				return;
+			}
+			gen(ue.expr, i);
+			if (ue.operator.spelling.equals("!")) {
+				_asm.add( new Not( new R(dst, true) ) );
+			} else {
+				_asm.add( new Neg( new R(dst, true) ) );
+			}
+		} else {
+			BinaryExpr be = (BinaryExpr) expr;
+			Expression only = reduced(be);
+			if (only != null) {
+				gen(only, i);
+				int k = ConstantFolding.log2(_const.get(only == be.left ? be.right : be.left));
+				if (be.operator.spelling.equals("*") && k > 0) {
+					_asm.add( new Shl( new R(dst, true), k ) );
+				}
+				return;
+			}
+			int l = _need.get(be.left);
+			int r = _need.get(be.right);
+			Reg64 next = POOL[i + 1];
+			if (_need.get(be) > POOL.length - i) { // out of registers, park the rhs on the stack
+				gen(be.right, i);
+				_asm.add( new Push(dst) );
+				gen(be.left, i);
+				_asm.add( new Pop(next) );
+				operate(be.operator, dst, next);
+			} else if (l >= r) {
+				gen(be.left, i);
+				gen(be.right, i + 1);
+				operate(be.operator, dst, next);
+			} else { // the heavier rhs goes first while all the registers are still free
+				gen(be.right, i);
+				gen(be.left, i + 1);
+				operate(be.operator, next, dst);
+				_asm.add( new Mov_rmr( new R(dst, next) ) );
+			}
+		}
+	}
+
+	private void load(IdRef ref, Reg64 dst) {
+		if (ref.declaration instanceof VarDecl) {
+			_asm.add( new Mov_rrm( new R(Reg64.RBP, ((VarDecl) ref.declaration).offset, dst) ) ); // mov dst, [rbp + offset]
+			return;
+		}
+		FieldDecl fd = (FieldDecl) ref.declaration;
+		if (fd.isStatic) {
+			_asm.add( new Mov_rrm( new R(Reg64.R15, fd.offset, dst) ) ); // mov dst, [r15 + offset]
+		} else {
+			_asm.add( new Mov_rrm( new R(Reg64.RBP, 16, dst) ) ); // dst = this
+			_asm.add( new Mov_rrm( new R(dst, fd.offset, dst) ) ); // mov dst, [dst + offset]
+		}
+	}
+
+	// lhs := lhs op rhs
+	private void operate(Operator op, Reg64 lhs, Reg64 rhs) {
+		Condition cond = Condition.getCond(op);
+		if (cond != null) {
+			_asm.add( new Xor( new R(Reg64.RDX, Reg64.RDX) ) );
+			_asm.add( new Cmp( new R(lhs, rhs) ) );
+			_asm.add( new SetCond( cond, Reg8.DL) );
+			_asm.add( new Mov_rmr( new R(lhs, Reg64.RDX) ) );
+			return;
+		}
+		switch (op.spelling) {
+			case "+":
+				_asm.add( new Add( new R(lhs, rhs) ) );
+				break;
+			case "-":
+				_asm.add( new Sub( new R(lhs, rhs) ) );
+				break;
+			case "||":
+				_asm.add( new Or( new R(lhs, rhs) ) );
+				break;
+			case "&&":
+				_asm.add( new And( new R(lhs, rhs) ) );
+				break;
+			case "*":
+				_asm.add( new Imul( lhs, new R(rhs, true) ) );
+				break;
+		}
+	}
+}
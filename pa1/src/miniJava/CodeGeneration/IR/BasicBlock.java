@@ -0,0 +1,44 @@
+package miniJava.CodeGeneration.IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Straight-line instructions ending in a JUMP, BRANCH or RET terminator
+public class BasicBlock {
+	public final int id;
+	public final List<Instr> instrs = new ArrayList<Instr>();
+	public Instr terminator;
+	public BasicBlock taken; // JUMP and BRANCH
+	public BasicBlock notTaken; // BRANCH
+	public final List<BasicBlock> preds = new ArrayList<BasicBlock>(); // as of IRMethod.computePredecessors
+
+	BasicBlock(int id) {
+		this.id = id;
+	}
+
+	public List<BasicBlock> successors() {
+		List<BasicBlock> succs = new ArrayList<BasicBlock>(2);
+		if (terminator.op == Opcode.JUMP) {
+			succs.add(taken);
+		} else if (terminator.op == Opcode.BRANCH) {
+			succs.add(taken);
+			succs.add(notTaken);
+		}
+		return succs;
+	}
+
+	// Points every edge that goes to from at to instead
+	void retarget(BasicBlock from, BasicBlock to) {
+		if (taken == from) {
+			taken = to;
+		}
+		if (notTaken == from) {
+			notTaken = to;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "b" + id;
+	}
+}
@@ -0,0 +1,162 @@
+package miniJava.CodeGeneration.IR;
+
+import miniJava.CodeGeneration.x64.Condition;
+
+// Works out whatever only depends on constants, and simplifies what a constant operand makes
+//  trivial: x + 0, x - 0, x * 1, x / 1 and x | 0 are x, x * 0 and x & 0 are 0, two ! or two -
+//  in a row cancel out, and x times a power of two is a shift. A branch on a constant becomes
+//  a jump, SimplifyCFG then drops the side never taken. Values are 64 bits at run time, sums
+//  here are too, and only results fitting the 32 bits of a CONST replace their instruction.
+public class ConstantFolding implements Pass {
+	public void run(IRMethod fn) {
+		int n = fn.vregCount();
+		int[] alias = new int[n]; // the value each one turned out to be a copy of
+		Instr[] def = new Instr[n];
+		for (int v = 0; v < n; v++) {
+			alias[v] = v;
+		}
+		for (BasicBlock b : fn.blocks) {
+			for (int i = 0; i < b.instrs.size(); i++) {
+				Instr ins = b.instrs.get(i);
+				rename(ins, alias);
+				Instr folded = fold(ins, def, alias);
+				b.instrs.set(i, folded);
+				if (folded.dst >= 0) {
+					def[folded.dst] = folded;
+				}
+			}
+			rename(b.terminator, alias);
+			if (b.terminator.op == Opcode.BRANCH) {
+				Long cond = constant(def, b.terminator.uses[0]);
+				if (cond != null) {
+					b.terminator = new Instr(Opcode.JUMP, -1, 0);
+					if (cond == 0) {
+						b.taken = b.notTaken;
+					}
+					b.notTaken = null;
+				}
+			}
+		}
+	}
+
+	// Null for what is left to run time, dividing by zero among it
+	public static Long binary(Opcode op, Condition cond, long a, long b) {
+		switch (op) {
+			case ADD: return a + b;
+			case SUB: return a - b;
+			case MUL: return a * b;
+			case DIV: return b == 0 ? null : a / b;
+			case AND: return a & b;
+			case OR: return a | b;
+			case CMP: return compare(cond, a, b) ? 1L : 0L;
+			default: return null;
+		}
+	}
+
+	public static Long unary(Opcode op, long a) {
+		switch (op) {
+			case NEG: return -a;
+			case NOT: return ~a; // ! flips every bit at run time too
+			default: return null;
+		}
+	}
+
+	// k for a constant 2^k, -1 for anything else
+	public static int log2(Long value) {
+		return value != null && value > 0 && (value & (value - 1)) == 0 ? Long.numberOfTrailingZeros(value) : -1;
+	}
+
+	private static boolean compare(Condition cond, long a, long b) {
+		switch (cond) {
+			case E: return a == b;
+			case NE: return a != b;
+			case LT: return a < b;
+			case LTE: return a <= b;
+			case GT: return a > b;
+			case GTE: return a >= b;
+		}
+		throw new IllegalArgumentException("Illegal condition: " + cond);
+	}
+
+	private void rename(Instr ins, int[] alias) {
+		for (int i = 0; i < ins.uses.length; i++) {
+			ins.uses[i] = alias[ins.uses[i]];
+		}
+	}
+
+	private Long constant(Instr[] def, int v) {
+		Instr d = def[v];
+		return d != null && d.op == Opcode.CONST ? (long) d.imm : null;
+	}
+
+	// ins itself when nothing changes, or when it became a copy, which alias records and
+	//  DeadCodeElimination then removes
+	private Instr fold(Instr ins, Instr[] def, int[] alias) {
+		if (!ins.op.isPure() || ins.op == Opcode.CONST || ins.uses.length == 0) {
+			return ins;
+		}
+		int x = ins.uses[0];
+		Long a = constant(def, x);
+		if (ins.uses.length == 1) {
+			if (a != null) {
+				return constant(ins, unary(ins.op, a));
+			}
+			if ((ins.op == Opcode.NEG || ins.op == Opcode.NOT) && def[x] != null && def[x].op == ins.op) {
+				alias[ins.dst] = def[x].uses[0];
+			}
+			return ins;
+		}
+		int y = ins.uses[1];
+		Long b = constant(def, y);
+		if (a != null && b != null) {
+			return constant(ins, binary(ins.op, ins.cond, a, b));
+		}
+		switch (ins.op) {
+			case ADD:
+			case OR:
+				return same(ins, alias, is(b, 0) ? x : is(a, 0) ? y : -1);
+			case SUB:
+				return same(ins, alias, is(b, 0) ? x : -1);
+			case DIV:
+				return same(ins, alias, is(b, 1) ? x : -1);
+			case AND:
+				return is(a, 0) || is(b, 0) ? new Instr(Opcode.CONST, ins.dst, 0) : ins;
+			case MUL:
+				if (is(a, 0) || is(b, 0)) {
+					return new Instr(Opcode.CONST, ins.dst, 0);
+				} else if (log2(b) >= 0) {
+					return shift(ins, alias, x, log2(b));
+				} else if (log2(a) >= 0) {
+					return shift(ins, alias, y, log2(a));
+				}
+				return ins;
+			default:
+				return ins;
+		}
+	}
+
+	private static boolean is(Long value, long c) {
+		return value != null && value == c;
+	}
+
+	private Instr constant(Instr ins, Long value) {
+		if (value == null || value != (int) (long) value) {
+			return ins;
+		}
+		return new Instr(Opcode.CONST, ins.dst, (int) (long) value);
+	}
+
+	private Instr same(Instr ins, int[] alias, int v) {
+		if (v >= 0) {
+			alias[ins.dst] = v;
+		}
+		return ins;
+	}
+
+	private Instr shift(Instr ins, int[] alias, int v, int k) {
+		if (k == 0) {
+			return same(ins, alias, v);
+		}
+		return new Instr(Opcode.SHL, ins.dst, k, v);
+	}
+}
@@ -0,0 +1,43 @@
+package miniJava.CodeGeneration.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Drops pure instructions whose value nothing reads. A value never leaves its block, so going
+//  through each block backwards sees every use of an instruction's operands gone before it
+//  gets to where they are defined.
+public class DeadCodeElimination implements Pass {
+	public void run(IRMethod fn) {
+		int[] uses = new int[fn.vregCount()];
+		for (BasicBlock b : fn.blocks) {
+			for (Instr ins : b.instrs) {
+				count(uses, ins, 1);
+			}
+			count(uses, b.terminator, 1);
+		}
+
+		for (BasicBlock b : fn.blocks) {
+			List<Instr> kept = new ArrayList<Instr>(b.instrs.size());
+			for (int i = b.instrs.size() - 1; i >= 0; i--) {
+				Instr ins = b.instrs.get(i);
+				if (ins.op.isPure() && uses[ins.dst] == 0) {
+					count(uses, ins, -1);
+				} else {
+					kept.add(ins);
+				}
+			}
+			if (kept.size() < b.instrs.size()) {
+				Collections.reverse(kept);
+				b.instrs.clear();
+				b.instrs.addAll(kept);
+			}
+		}
+	}
+
+	private void count(int[] uses, Instr ins, int by) {
+		for (int u : ins.uses) {
+			uses[u] += by;
+		}
+	}
+}
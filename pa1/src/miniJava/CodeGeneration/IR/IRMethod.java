@@ -0,0 +1,69 @@
+package miniJava.CodeGeneration.IR;
+
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The control-flow graph of one method. The first block is the entry, blocks are laid out in
+//  list order, RET leaves through an epilogue the backend puts after the last one.
+public class IRMethod {
+	public final MethodDecl decl;
+	public final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+	public int locals; // frame slots the local variables take below rbp
+	private int _vregs;
+	private int _nextBlock;
+
+	public IRMethod(MethodDecl decl) {
+		this.decl = decl;
+	}
+
+	public BasicBlock newBlock() {
+		BasicBlock b = new BasicBlock(_nextBlock++);
+		blocks.add(b);
+		return b;
+	}
+
+	public int newVReg() {
+		return _vregs++;
+	}
+
+	public int vregCount() {
+		return _vregs;
+	}
+
+	public BasicBlock entry() {
+		return blocks.get(0);
+	}
+
+	public void computePredecessors() {
+		for (BasicBlock b : blocks) {
+			b.preds.clear();
+		}
+		for (BasicBlock b : blocks) {
+			for (BasicBlock s : b.successors()) {
+				s.preds.add(b);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(decl.name).append(":\n");
+		for (BasicBlock b : blocks) {
+			sb.append(b).append(":\n");
+			for (Instr i : b.instrs) {
+				sb.append("  ").append(i).append('\n');
+			}
+			sb.append("  ").append(b.terminator);
+			if (b.taken != null) {
+				sb.append(' ').append(b.taken);
+			}
+			if (b.notTaken != null) {
+				sb.append(' ').append(b.notTaken);
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
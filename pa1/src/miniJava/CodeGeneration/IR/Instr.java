@@ -0,0 +1,44 @@
+package miniJava.CodeGeneration.IR;
+
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.CodeGeneration.x64.Condition;
+
+// One three-address instruction. Operands are virtual registers, numbered per method, and
+//  every one of them is defined by exactly one instruction of the block that uses it.
+public class Instr {
+	public final Opcode op;
+	public int dst; // -1 when nothing is defined
+	public int[] uses;
+	public int imm; // the constant, or the offset of a frame slot or field
+	public Condition cond; // CMP only
+	public MethodDecl callee; // CALL only
+
+	public Instr(Opcode op, int dst, int imm, int... uses) {
+		this.op = op;
+		this.dst = dst;
+		this.imm = imm;
+		this.uses = uses;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (dst >= 0) {
+			sb.append('v').append(dst).append(" = ");
+		}
+		sb.append(op.name().toLowerCase());
+		if (cond != null) {
+			sb.append('.').append(cond.name().toLowerCase());
+		}
+		if (callee != null) {
+			sb.append(' ').append(callee.name);
+		}
+		for (int u : uses) {
+			sb.append(" v").append(u);
+		}
+		if (op == Opcode.CONST || op == Opcode.SHL || op.name().startsWith("LOAD_") || op.name().startsWith("STORE_")) {
+			sb.append(" #").append(imm);
+		}
+		return sb.toString();
+	}
+}
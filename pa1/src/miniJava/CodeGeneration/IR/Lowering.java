@@ -0,0 +1,432 @@
+package miniJava.CodeGeneration.IR;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.x64.Condition;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns one method into IR. Variables stay in their frame slots, a virtual register only
+//  carries a value from the instruction computing it to the one using it within a statement,
+//  so no register is live across blocks. The frame and calling convention are the stack
+//  code's, methods from either side call each other. A method using something this doesn't
+//  handle comes back null and is left to the stack code.
+public class Lowering implements Visitor<Object, Integer> {
+	private IRMethod _fn;
+	private BasicBlock _block;
+	private final Map<Declaration, Integer> _slots = new IdentityHashMap<Declaration, Integer>();
+	private int _locals;
+
+	public static IRMethod lower(MethodDecl md) {
+		try {
+			return new Lowering().method(md);
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	private IRMethod method(MethodDecl md) {
+		_fn = new IRMethod(md);
+		_block = _fn.newBlock();
+		// The caller pushes the arguments last to first and then this, so above the return
+		//  address this is at rbp + 16 and the parameters follow in order
+		for (int i = 0; i < md.parameterDeclList.size(); i++) {
+			_slots.put(md.parameterDeclList.get(i), 24 + i * 8);
+		}
+		for (Statement s : md.statementList) {
+			s.visit(this, md);
+		}
+		terminate(Opcode.RET, null, null);
+
+		_fn.locals = _locals;
+		for (Map.Entry<Declaration, Integer> e : _slots.entrySet()) {
+			if (e.getKey() instanceof VarDecl) {
+				((VarDecl) e.getKey()).offset = e.getValue(); // only now, a method given up on keeps the stack code's
+			}
+		}
+		return _fn;
+	}
+
+	private int emit(Opcode op, int imm, int... uses) {
+		int dst = _fn.newVReg();
+		_block.instrs.add(new Instr(op, dst, imm, uses));
+		return dst;
+	}
+
+	private void effect(Opcode op, int imm, int... uses) {
+		_block.instrs.add(new Instr(op, -1, imm, uses));
+	}
+
+	private void terminate(Opcode op, BasicBlock taken, BasicBlock notTaken, int... uses) {
+		_block.terminator = new Instr(op, -1, 0, uses);
+		_block.taken = taken;
+		_block.notTaken = notTaken;
+	}
+
+	private static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	////////////////////////////////////
+	/* STATEMENTS */
+	////////////////////////////////////
+
+	public Integer visitBlockStmt(BlockStmt stmt, Object arg) {
+		lowerNested(stmt, arg);
+		return null;
+	}
+
+	public Integer visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+		int slot = ++_locals * -8;
+		_slots.put(stmt.varDecl, slot);
+		if (stmt.initExp != null) {
+			effect(Opcode.STORE_FRAME, slot, stmt.initExp.visit(this, arg));
+		}
+		return null;
+	}
+
+	public Integer visitAssignStmt(AssignStmt stmt, Object arg) {
+		if (stmt.ref instanceof QualRef) {
+			FieldDecl fd = field((QualRef) stmt.ref);
+			if (fd.isStatic) {
+				effect(Opcode.STORE_STATIC, fd.offset, stmt.val.visit(this, arg));
+			} else {
+				int obj = ((QualRef) stmt.ref).ref.visit(this, arg);
+				effect(Opcode.STORE_FIELD, fd.offset, obj, stmt.val.visit(this, arg));
+			}
+			return null;
+		}
+		if (!(stmt.ref instanceof IdRef)) {
+			throw new Unsupported();
+		}
+		Declaration decl = stmt.ref.declaration;
+		if (_slots.containsKey(decl)) {
+			effect(Opcode.STORE_FRAME, _slots.get(decl), stmt.val.visit(this, arg));
+		} else if (decl instanceof FieldDecl && ((FieldDecl) decl).isStatic) {
+			effect(Opcode.STORE_STATIC, ((FieldDecl) decl).offset, stmt.val.visit(this, arg));
+		} else if (decl instanceof FieldDecl) {
+			int obj = emit(Opcode.LOAD_FRAME, 16);
+			effect(Opcode.STORE_FIELD, ((FieldDecl) decl).offset, obj, stmt.val.visit(this, arg));
+		} else {
+			throw new Unsupported();
+		}
+		return null;
+	}
+
+	public Integer visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+		int array = stmt.ref.visit(this, arg);
+		int index = stmt.ix.visit(this, arg);
+		effect(Opcode.STORE_ELEMENT, 0, array, index, stmt.exp.visit(this, arg));
+		return null;
+	}
+
+	public Integer visitCallStmt(CallStmt stmt, Object arg) {
+		if (stmt.methodRef instanceof QualRef && ((QualRef) stmt.methodRef).id.spelling.equals("println")) {
+			effect(Opcode.PRINT, 0, stmt.argList.get(0).visit(this, arg));
+			return null;
+		}
+		call(stmt.methodRef, stmt.argList, arg, false);
+		return null;
+	}
+
+	public Integer visitReturnStmt(ReturnStmt stmt, Object arg) {
+		if (stmt.returnExpr != null) {
+			int value = stmt.returnExpr.visit(this, arg);
+			terminate(Opcode.RET, null, null, value);
+		} else {
+			terminate(Opcode.RET, null, null);
+		}
+		_block = _fn.newBlock(); // anything after the return, nothing reaches it
+		return null;
+	}
+
+	public Integer visitIfStmt(IfStmt stmt, Object arg) {
+		lowerNested(stmt, arg);
+		return null;
+	}
+
+	public Integer visitWhileStmt(WhileStmt stmt, Object arg) {
+		lowerNested(stmt, arg);
+		return null;
+	}
+
+	// Blocks, ifs and whiles on a stack of their own like the other passes. An if or while
+	//  branches once its condition is lowered, the blocks it continues in wait on blocks.
+	private void lowerNested(Statement stmt, Object arg) {
+		List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+		List<Integer> conds = new ArrayList<Integer>();
+		new ASTWalker() {
+			protected boolean pre(AST node) {
+				if (node instanceof WhileStmt) {
+					BasicBlock header = _fn.newBlock();
+					terminate(Opcode.JUMP, header, null);
+					_block = header;
+					blocks.add(header);
+					return true;
+				} else if (node instanceof IfStmt || node instanceof BlockStmt) {
+					return true;
+				} else if (node instanceof Expression) { // only ever the condition of an if or while
+					conds.add(node.visit(Lowering.this, arg));
+				} else {
+					node.visit(Lowering.this, arg);
+				}
+				return false;
+			}
+
+			protected void after(AST node, int child) {
+				if (node instanceof IfStmt && child == 0) {
+					BasicBlock thenBlock = _fn.newBlock();
+					BasicBlock elseBlock = ((IfStmt) node).elseStmt != null ? _fn.newBlock() : null;
+					BasicBlock after = _fn.newBlock();
+					terminate(Opcode.BRANCH, thenBlock, elseBlock != null ? elseBlock : after, conds.remove(conds.size() - 1));
+					blocks.add(after);
+					blocks.add(elseBlock);
+					_block = thenBlock;
+				} else if (node instanceof IfStmt && child == 1) {
+					BasicBlock elseBlock = blocks.remove(blocks.size() - 1);
+					terminate(Opcode.JUMP, blocks.get(blocks.size() - 1), null);
+					if (elseBlock != null) {
+						_block = elseBlock;
+					}
+				} else if (node instanceof WhileStmt && child == 0) {
+					BasicBlock body = _fn.newBlock();
+					BasicBlock after = _fn.newBlock();
+					terminate(Opcode.BRANCH, body, after, conds.remove(conds.size() - 1));
+					blocks.add(after);
+					_block = body;
+				}
+			}
+
+			protected void post(AST node) {
+				if (node instanceof IfStmt) {
+					BasicBlock after = blocks.remove(blocks.size() - 1);
+					if (((IfStmt) node).elseStmt != null) {
+						terminate(Opcode.JUMP, after, null);
+					}
+					_block = after;
+				} else if (node instanceof WhileStmt) {
+					BasicBlock after = blocks.remove(blocks.size() - 1);
+					terminate(Opcode.JUMP, blocks.remove(blocks.size() - 1), null);
+					_block = after;
+				}
+			}
+		}.walk(stmt);
+	}
+
+	////////////////////////////////////
+	/* EXPRESSIONS */
+	////////////////////////////////////
+
+	public Integer visitUnaryExpr(UnaryExpr expr, Object arg) {
+		int operand = expr.expr.visit(this, arg);
+		return emit(expr.operator.spelling.equals("!") ? Opcode.NOT : Opcode.NEG, 0, operand);
+	}
+
+	public Integer visitBinaryExpr(BinaryExpr expr, Object arg) {
+		// On a stack of its own like the other passes, operand values wait in operands
+		List<Integer> operands = new ArrayList<Integer>();
+		new ASTWalker() {
+			protected boolean pre(AST node) {
+				if (node instanceof BinaryExpr) {
+					return true;
+				}
+				if (!(node instanceof Operator)) {
+					operands.add(node.visit(Lowering.this, arg));
+				}
+				return false;
+			}
+
+			protected void post(AST node) {
+				int right = operands.remove(operands.size() - 1);
+				int left = operands.remove(operands.size() - 1);
+				operands.add(binary(((BinaryExpr) node).operator, left, right));
+			}
+		}.walk(expr);
+		return operands.get(0);
+	}
+
+	private int binary(Operator op, int left, int right) {
+		Condition cond = Condition.getCond(op);
+		if (cond != null) {
+			int dst = emit(Opcode.CMP, 0, left, right);
+			_block.instrs.get(_block.instrs.size() - 1).cond = cond;
+			return dst;
+		}
+		switch (op.spelling) {
+			case "+":
+				return emit(Opcode.ADD, 0, left, right);
+			case "-":
+				return emit(Opcode.SUB, 0, left, right);
+			case "*":
+				return emit(Opcode.MUL, 0, left, right);
+			case "/":
+				return emit(Opcode.DIV, 0, left, right);
+			case "&&":
+				return emit(Opcode.AND, 0, left, right);
+			case "||":
+				return emit(Opcode.OR, 0, left, right);
+			default:
+				throw new Unsupported();
+		}
+	}
+
+	public Integer visitRefExpr(RefExpr expr, Object arg) {
+		return expr.ref.visit(this, arg);
+	}
+
+	public Integer visitIxExpr(IxExpr expr, Object arg) {
+		int array = expr.ref.visit(this, arg);
+		return emit(Opcode.LOAD_ELEMENT, 0, array, expr.ixExpr.visit(this, arg));
+	}
+
+	public Integer visitCallExpr(CallExpr expr, Object arg) {
+		return call(expr.functionRef, expr.argList, arg, true);
+	}
+
+	// Arguments are worked out last to first, then the object, as the stack code pushes them
+	private int call(Reference method, ExprList args, Object arg, boolean value) {
+		int[] uses = new int[args.size() + 1];
+		for (int i = args.size() - 1; i >= 0; i--) {
+			uses[i + 1] = args.get(i).visit(this, arg);
+		}
+		Declaration decl;
+		if (method instanceof QualRef) {
+			Reference obj = ((QualRef) method).ref;
+			if (obj instanceof IdRef && obj.declaration instanceof ClassDecl) {
+				uses[0] = emit(Opcode.CONST, 0); // a static method called through its class
+			} else {
+				uses[0] = obj.visit(this, arg);
+			}
+			decl = ((QualRef) method).id.getDeclaration();
+		} else if (method instanceof IdRef) {
+			uses[0] = emit(Opcode.LOAD_FRAME, 16); // our own this
+			decl = method.declaration;
+		} else {
+			throw new Unsupported();
+		}
+		if (!(decl instanceof MethodDecl)) {
+			throw new Unsupported();
+		}
+		Instr call = new Instr(Opcode.CALL, value ? _fn.newVReg() : -1, 0, uses);
+		call.callee = (MethodDecl) decl;
+		_block.instrs.add(call);
+		return call.dst;
+	}
+
+	public Integer visitLiteralExpr(LiteralExpr expr, Object arg) {
+		return expr.lit.visit(this, arg);
+	}
+
+	// The size isn't looked at, every allocation is a page like in the stack code
+	public Integer visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+		return emit(Opcode.ALLOC, 0);
+	}
+
+	public Integer visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+		return emit(Opcode.ALLOC, 0);
+	}
+
+	////////////////////////////////////
+	/* REFERENCES */
+	////////////////////////////////////
+
+	public Integer visitThisRef(ThisRef ref, Object arg) {
+		return emit(Opcode.LOAD_FRAME, 16);
+	}
+
+	public Integer visitIdRef(IdRef ref, Object arg) {
+		Declaration decl = ref.declaration;
+		if (_slots.containsKey(decl)) {
+			return emit(Opcode.LOAD_FRAME, _slots.get(decl));
+		} else if (decl instanceof FieldDecl && ((FieldDecl) decl).isStatic) {
+			return emit(Opcode.LOAD_STATIC, ((FieldDecl) decl).offset);
+		} else if (decl instanceof FieldDecl) {
+			return emit(Opcode.LOAD_FIELD, ((FieldDecl) decl).offset, emit(Opcode.LOAD_FRAME, 16));
+		}
+		throw new Unsupported();
+	}
+
+	public Integer visitQRef(QualRef ref, Object arg) {
+		FieldDecl fd = field(ref);
+		if (fd.isStatic) {
+			return emit(Opcode.LOAD_STATIC, fd.offset);
+		}
+		return emit(Opcode.LOAD_FIELD, fd.offset, ref.ref.visit(this, arg));
+	}
+
+	private FieldDecl field(QualRef ref) {
+		Declaration decl = ref.id.getDeclaration();
+		if (!(decl instanceof FieldDecl)) {
+			throw new Unsupported(); // array length among others
+		}
+		return (FieldDecl) decl;
+	}
+
+	////////////////////////////////////
+	/* TERMINALS */
+	////////////////////////////////////
+
+	public Integer visitIntLiteral(IntLiteral num, Object arg) {
+		return emit(Opcode.CONST, Integer.parseInt(num.spelling));
+	}
+
+	public Integer visitBooleanLiteral(BooleanLiteral bool, Object arg) {
+		return emit(Opcode.CONST, bool.spelling.equals("true") ? 1 : 0);
+	}
+
+	public Integer visitNullLiteral(NullLiteral nl, Object arg) {
+		return emit(Opcode.CONST, 0);
+	}
+
+	// Nothing below is reached from a method body's statements
+	public Integer visitPackage(Package prog, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitClassDecl(ClassDecl cd, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitFieldDecl(FieldDecl fd, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitMethodDecl(MethodDecl md, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitParameterDecl(ParameterDecl pd, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitVarDecl(VarDecl decl, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitBaseType(BaseType type, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitClassType(ClassType type, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitArrayType(ArrayType type, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitIdentifier(Identifier id, Object arg) {
+		throw new Unsupported();
+	}
+
+	public Integer visitOperator(Operator op, Object arg) {
+		throw new Unsupported();
+	}
+}
@@ -0,0 +1,47 @@
+package miniJava.CodeGeneration.IR;
+
+public enum Opcode {
+	CONST,			// dst := imm
+	LOAD_FRAME,		// dst := [rbp + imm], locals, parameters and this
+	STORE_FRAME,	// [rbp + imm] := a
+	LOAD_STATIC,	// dst := [r15 + imm]
+	STORE_STATIC,	// [r15 + imm] := a
+	LOAD_FIELD,		// dst := [a + imm]
+	STORE_FIELD,	// [a + imm] := b
+	LOAD_ELEMENT,	// dst := a[b]
+	STORE_ELEMENT,	// a[b] := c
+	NEG,			// dst := -a
+	NOT,			// dst := ~a
+	ADD,			// dst := a + b
+	SUB,			// dst := a - b
+	MUL,			// dst := a * b
+	DIV,			// dst := a / b
+	AND,			// dst := a & b
+	OR,				// dst := a | b
+	SHL,			// dst := a << imm
+	CMP,			// dst := a cond b ? 1 : 0
+	ALLOC,			// dst := a fresh block of heap
+	PRINT,			// println(a)
+	CALL,			// dst := callee(b, c, ...) on the object a, dst may be -1
+
+	// Only ever the terminator of a block
+	JUMP,			// to taken
+	BRANCH,			// to taken if a != 0, else to notTaken
+	RET;			// leave the method, with a in RAX if there is an a
+
+	// Whether the instruction only defines dst, so it can go once dst isn't used.
+	//  DIV stays, dividing by zero has to trap where it did.
+	public boolean isPure() {
+		switch (this) {
+			case CONST: case LOAD_FRAME: case LOAD_STATIC: case LOAD_FIELD: case LOAD_ELEMENT:
+			case NEG: case NOT: case ADD: case SUB: case MUL: case AND: case OR: case SHL: case CMP:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	public boolean isTerminator() {
+		return this == JUMP || this == BRANCH || this == RET;
+	}
+}
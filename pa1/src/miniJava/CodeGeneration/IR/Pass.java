@@ -0,0 +1,6 @@
+package miniJava.CodeGeneration.IR;
+
+// A transformation of one method's IR, done in place
+public interface Pass {
+	void run(IRMethod fn);
+}
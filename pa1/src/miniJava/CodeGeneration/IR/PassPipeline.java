@@ -0,0 +1,27 @@
+package miniJava.CodeGeneration.IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The passes every lowered method goes through, in order, before the backend sees it
+public class PassPipeline {
+	private final List<Pass> _passes = new ArrayList<Pass>();
+
+	public static PassPipeline standard() {
+		return new PassPipeline()
+				.add(new ConstantFolding())
+				.add(new SimplifyCFG())
+				.add(new DeadCodeElimination());
+	}
+
+	public PassPipeline add(Pass pass) {
+		_passes.add(pass);
+		return this;
+	}
+
+	public void run(IRMethod fn) {
+		for (Pass pass : _passes) {
+			pass.run(fn);
+		}
+	}
+}
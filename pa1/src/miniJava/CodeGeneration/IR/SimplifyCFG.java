@@ -0,0 +1,85 @@
+package miniJava.CodeGeneration.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// Cleans up the control flow lowering leaves behind: blocks nothing reaches (whatever follows
+//  a return), branches going to the same block either way, edges into empty blocks that only
+//  jump on, and blocks only one jump leads to, which are glued onto the end of the jumping one.
+public class SimplifyCFG implements Pass {
+	public void run(IRMethod fn) {
+		removeUnreachable(fn);
+		for (BasicBlock b : fn.blocks) {
+			if (b.terminator.op == Opcode.BRANCH && b.taken == b.notTaken) {
+				b.terminator = new Instr(Opcode.JUMP, -1, 0);
+				b.notTaken = null;
+			}
+			if (b.taken != null) {
+				b.taken = skipEmpty(b.taken, fn.blocks.size());
+			}
+			if (b.notTaken != null) {
+				b.notTaken = skipEmpty(b.notTaken, fn.blocks.size());
+			}
+		}
+		removeUnreachable(fn);
+		merge(fn);
+	}
+
+	// The first block on from's chain of empty jumping blocks that does something,
+	//  giving up after limit steps on a chain that loops
+	private BasicBlock skipEmpty(BasicBlock from, int limit) {
+		BasicBlock b = from;
+		for (int i = 0; i < limit && b.instrs.isEmpty() && b.terminator.op == Opcode.JUMP && b.taken != b; i++) {
+			b = b.taken;
+		}
+		return b;
+	}
+
+	private void merge(IRMethod fn) {
+		fn.computePredecessors();
+		Set<BasicBlock> merged = Collections.newSetFromMap(new IdentityHashMap<BasicBlock, Boolean>());
+		for (BasicBlock b : fn.blocks) {
+			if (merged.contains(b)) {
+				continue;
+			}
+			while (b.terminator.op == Opcode.JUMP) {
+				BasicBlock next = b.taken;
+				if (next == b || next == fn.entry() || next.preds.size() != 1) {
+					break;
+				}
+				b.instrs.addAll(next.instrs);
+				b.terminator = next.terminator;
+				b.taken = next.taken;
+				b.notTaken = next.notTaken;
+				for (BasicBlock s : next.successors()) {
+					Collections.replaceAll(s.preds, next, b);
+				}
+				merged.add(next);
+			}
+		}
+		if (!merged.isEmpty()) {
+			fn.blocks.removeIf(merged::contains);
+		}
+	}
+
+	private void removeUnreachable(IRMethod fn) {
+		Set<BasicBlock> reached = Collections.newSetFromMap(new IdentityHashMap<BasicBlock, Boolean>());
+		List<BasicBlock> work = new ArrayList<BasicBlock>();
+		work.add(fn.entry());
+		reached.add(fn.entry());
+		while (!work.isEmpty()) {
+			BasicBlock b = work.remove(work.size() - 1);
+			for (BasicBlock s : b.successors()) {
+				if (reached.add(s)) {
+					work.add(s);
+				}
+			}
+		}
+		if (reached.size() < fn.blocks.size()) {
+			fn.blocks.removeIf(b -> !reached.contains(b));
+		}
+	}
+}
@@ -0,0 +1,460 @@
+package miniJava.CodeGeneration.IR;
+
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Picks x64 instructions for a method's IR. Registers are handed out block by block in one
+//  scan, a value gets a free register from POOL when it is defined and gives it back at its
+//  last use. With none free it lives in a frame slot below the locals, and is loaded into the
+//  SCRATCH register for its operand position wherever it is used.
+//  Calls, println and allocations save the registers still in use around them.
+public class X64Backend {
+	private static final Reg64[] POOL = {
+		Reg64.RBX, Reg64.RCX, Reg64.RSI, Reg64.RDI,
+		Reg64.R8, Reg64.R9, Reg64.R10, Reg64.R11, Reg64.R14
+	};
+	// R12 only ever goes in the second position, [r12 + disp] needs a SIB byte R doesn't write
+	private static final Reg64[] SCRATCH = { Reg64.R13, Reg64.R12, Reg64.RAX };
+
+	private final InstructionList _asm;
+
+	// Per method
+	private Reg64[] _reg; // null for a value living in a frame slot
+	private int[] _slot;
+	private int _frame; // slots taken below rbp, locals first
+	private Map<Instr, List<Reg64>> _saved;
+	private Map<BasicBlock, Label> _labels;
+	private Label _exit; // the epilogue
+
+	public X64Backend(InstructionList asm) {
+		this._asm = asm;
+	}
+
+	// Emits fn at the current end of the code. exits says fn is main, which ends the process.
+	public void emit(IRMethod fn, boolean exits) {
+		_reg = new Reg64[fn.vregCount()];
+		_slot = new int[fn.vregCount()];
+		_frame = fn.locals;
+		_saved = new IdentityHashMap<Instr, List<Reg64>>();
+		_labels = new IdentityHashMap<BasicBlock, Label>();
+		_exit = new Label();
+		for (BasicBlock b : fn.blocks) {
+			_labels.put(b, new Label());
+		}
+
+		int[] last = new int[fn.vregCount()];
+		for (BasicBlock b : fn.blocks) {
+			allocate(b, last);
+		}
+
+		_asm.add( new Push(Reg64.RBP) );
+		_asm.add( new Mov_rmr( new R(Reg64.RBP, Reg64.RSP) ) );
+		for (int i = 0; i < fn.locals; i++) {
+			_asm.add( new Push(0) ); // locals start out zero like in the stack code
+		}
+		if (_frame > fn.locals) {
+			_asm.add( new Sub( new R(Reg64.RSP, true), (_frame - fn.locals) * 8 ) );
+		}
+
+		for (int i = 0; i < fn.blocks.size(); i++) {
+			BasicBlock b = fn.blocks.get(i);
+			_asm.bind(_labels.get(b));
+			BasicBlock next = i + 1 < fn.blocks.size() ? fn.blocks.get(i + 1) : null;
+			Instr fused = fusedCompare(b);
+			for (Instr ins : b.instrs) {
+				if (ins != fused) {
+					select(ins);
+				}
+			}
+			terminate(b, fused, next);
+		}
+
+		_asm.bind(_exit);
+		_asm.add( new Mov_rmr( new R(Reg64.RSP, Reg64.RBP) ) );
+		_asm.add( new Pop(Reg64.RBP) );
+		if (exits) {
+			_asm.add( new Mov_ri64(Reg64.RAX, 60) );
+			_asm.add( new Xor( new R(Reg64.RDI, Reg64.RDI) ) );
+			_asm.add( new Syscall() );
+		}
+		int thisOnStack = fn.decl.isStatic ? 0 : 1;
+		_asm.add( new Ret( (short)(fn.decl.parameterDeclList.size() + thisOnStack) ) );
+	}
+
+	////////////////////////////////////
+	/* REGISTERS */
+	////////////////////////////////////
+
+	private void allocate(BasicBlock b, int[] last) {
+		int n = b.instrs.size();
+		for (int i = 0; i < n; i++) {
+			Instr ins = b.instrs.get(i);
+			for (int u : ins.uses) {
+				last[u] = i;
+			}
+			if (ins.dst >= 0) {
+				last[ins.dst] = -1; // until a use turns up
+			}
+		}
+		for (int u : b.terminator.uses) {
+			last[u] = n;
+		}
+
+		boolean[] busy = new boolean[POOL.length];
+		List<Integer> freeSlots = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			Instr ins = b.instrs.get(i);
+			for (int u : ins.uses) {
+				if (last[u] == i && _reg[u] == null) {
+					freeSlots.add(_slot[u]);
+				} else if (last[u] == i) {
+					release(busy, _reg[u]);
+				}
+			}
+			if (ins.op == Opcode.CALL || ins.op == Opcode.PRINT || ins.op == Opcode.ALLOC) {
+				List<Reg64> live = new ArrayList<Reg64>();
+				for (int r = 0; r < POOL.length; r++) {
+					if (busy[r]) {
+						live.add(POOL[r]);
+					}
+				}
+				_saved.put(ins, live);
+			}
+			if (ins.dst >= 0) {
+				int r = 0;
+				while (r < POOL.length && busy[r]) {
+					r++;
+				}
+				if (r < POOL.length) {
+					_reg[ins.dst] = POOL[r];
+					busy[r] = last[ins.dst] > i;
+				} else if (!freeSlots.isEmpty()) {
+					_slot[ins.dst] = freeSlots.remove(freeSlots.size() - 1);
+				} else {
+					_slot[ins.dst] = ++_frame * -8;
+				}
+			}
+		}
+	}
+
+	private void release(boolean[] busy, Reg64 reg) {
+		for (int r = 0; r < POOL.length; r++) {
+			if (POOL[r] == reg) {
+				busy[r] = false;
+			}
+		}
+	}
+
+	// The register holding v, loaded from its slot into the scratch register for position pos if need be
+	private Reg64 use(int v, int pos) {
+		if (_reg[v] != null) {
+			return _reg[v];
+		}
+		_asm.add( new Mov_rrm( new R(Reg64.RBP, _slot[v], SCRATCH[pos]) ) );
+		return SCRATCH[pos];
+	}
+
+	// Where to compute v, RAX if it lives in a slot
+	private Reg64 target(int v) {
+		return _reg[v] != null ? _reg[v] : Reg64.RAX;
+	}
+
+	// v was computed into reg, stores it if it lives in a slot
+	private void define(int v, Reg64 reg) {
+		if (_reg[v] == null) {
+			_asm.add( new Mov_rmr( new R(Reg64.RBP, _slot[v], reg) ) );
+		} else if (_reg[v] != reg) {
+			_asm.add( new Mov_rmr( new R(_reg[v], reg) ) );
+		}
+	}
+
+	private void push(int v) {
+		if (_reg[v] != null) {
+			_asm.add( new Push(_reg[v]) );
+		} else {
+			_asm.add( new Push( new R(Reg64.RBP, _slot[v]) ) );
+		}
+	}
+
+	////////////////////////////////////
+	/* INSTRUCTIONS */
+	////////////////////////////////////
+
+	private void select(Instr ins) {
+		switch (ins.op) {
+			case CONST:
+				_asm.add( new Mov_rmi( new R(target(ins.dst), true), ins.imm ) );
+				define(ins.dst, target(ins.dst));
+				break;
+			case LOAD_FRAME:
+				load(ins.dst, Reg64.RBP, ins.imm);
+				break;
+			case LOAD_STATIC:
+				load(ins.dst, Reg64.R15, ins.imm);
+				break;
+			case LOAD_FIELD:
+				load(ins.dst, use(ins.uses[0], 0), ins.imm);
+				break;
+			case STORE_FRAME:
+				_asm.add( new Mov_rmr( new R(Reg64.RBP, ins.imm, use(ins.uses[0], 1)) ) );
+				break;
+			case STORE_STATIC:
+				_asm.add( new Mov_rmr( new R(Reg64.R15, ins.imm, use(ins.uses[0], 1)) ) );
+				break;
+			case STORE_FIELD: {
+				Reg64 obj = use(ins.uses[0], 0);
+				_asm.add( new Mov_rmr( new R(obj, ins.imm, use(ins.uses[1], 1)) ) );
+				break;
+			}
+			case LOAD_ELEMENT: {
+				// R only encodes [base + index*8] with RAX on the other side
+				Reg64 array = use(ins.uses[0], 0);
+				_asm.add( new Mov_rrm( new R(array, use(ins.uses[1], 1), 8, 0, Reg64.RAX) ) );
+				define(ins.dst, Reg64.RAX);
+				break;
+			}
+			case STORE_ELEMENT: {
+				Reg64 array = use(ins.uses[0], 0);
+				Reg64 index = use(ins.uses[1], 1);
+				Reg64 value = use(ins.uses[2], 2);
+				if (value != Reg64.RAX) {
+					_asm.add( new Mov_rmr( new R(Reg64.RAX, value) ) );
+				}
+				_asm.add( new Mov_rmr( new R(array, index, 8, 0, Reg64.RAX) ) );
+				break;
+			}
+			case NEG:
+			case NOT: {
+				Reg64 operand = use(ins.uses[0], 0);
+				Reg64 dst = target(ins.dst);
+				if (dst != operand) {
+					_asm.add( new Mov_rmr( new R(dst, operand) ) );
+				}
+				_asm.add( ins.op == Opcode.NEG ? new Neg( new R(dst, true) ) : new Not( new R(dst, true) ) );
+				define(ins.dst, dst);
+				break;
+			}
+			case ADD:
+			case SUB:
+			case MUL:
+			case AND:
+			case OR:
+				arithmetic(ins);
+				break;
+			case SHL: {
+				Reg64 operand = use(ins.uses[0], 0);
+				Reg64 dst = target(ins.dst);
+				if (dst != operand) {
+					_asm.add( new Mov_rmr( new R(dst, operand) ) );
+				}
+				_asm.add( new Shl( new R(dst, true), ins.imm ) );
+				define(ins.dst, dst);
+				break;
+			}
+			case DIV: {
+				Reg64 left = use(ins.uses[0], 0);
+				Reg64 right = use(ins.uses[1], 1);
+				_asm.add( new Mov_rmr( new R(Reg64.RAX, left) ) );
+				_asm.add( new Cqo() );
+				_asm.add( new Idiv( new R(right, true) ) );
+				define(ins.dst, Reg64.RAX);
+				break;
+			}
+			case CMP: {
+				Reg64 left = use(ins.uses[0], 0);
+				Reg64 right = use(ins.uses[1], 1);
+				_asm.add( new Xor( new R(Reg64.RDX, Reg64.RDX) ) );
+				_asm.add( new Cmp( new R(left, right) ) );
+				_asm.add( new SetCond(ins.cond, Reg8.DL) );
+				define(ins.dst, Reg64.RDX);
+				break;
+			}
+			case ALLOC:
+				saveAround(ins, () -> {
+					_asm.add( new Mov_rmi( new R(Reg64.RAX, true), 0x09 ) ); // mmap
+					_asm.add( new Xor( new R(Reg64.RDI, Reg64.RDI) ) ); // addr=0
+					_asm.add( new Mov_rmi( new R(Reg64.RSI, true), 0x1000 ) ); // 4kb alloc
+					_asm.add( new Mov_rmi( new R(Reg64.RDX, true), 0x03 ) ); // prot read|write
+					_asm.add( new Mov_rmi( new R(Reg64.R10, true), 0x22 ) ); // flags= private, anonymous
+					_asm.add( new Mov_rmi( new R(Reg64.R8, true), -1 ) ); // fd= -1
+					_asm.add( new Xor( new R(Reg64.R9, Reg64.R9) ) ); // offset=0
+					_asm.add( new Syscall() );
+				});
+				break;
+			case PRINT: {
+				Reg64 value = use(ins.uses[0], 0);
+				saveAround(ins, () -> {
+					_asm.add( new Push(value) );
+					_asm.add( new Mov_rmi( new R(Reg64.RAX, true), 1 ) );
+					_asm.add( new Mov_rmr( new R(Reg64.RSI, Reg64.RSP) ) ); // the byte we just pushed
+					_asm.add( new Mov_rmi( new R(Reg64.RDI, true), 1 ) ); // fd = 1 (stdout)
+					_asm.add( new Mov_rmi( new R(Reg64.RDX, true), 1 ) ); // length of str = 1
+					_asm.add( new Syscall() );
+					_asm.add( new Pop(Reg64.RAX) );
+				});
+				break;
+			}
+			case CALL:
+				saveAround(ins, () -> {
+					for (int i = ins.uses.length - 1; i >= 0; i--) {
+						push(ins.uses[i]); // arguments last to first, then the object
+					}
+					_asm.addCall(ins.callee.label);
+					if (ins.callee.isStatic) {
+						_asm.add( new Add( new R(Reg64.RSP, true), 8 ) ); // a static method leaves the object slot to us
+					}
+				});
+				break;
+			default:
+				throw new IllegalArgumentException("Not an instruction: " + ins.op);
+		}
+	}
+
+	private void load(int dst, Reg64 base, int offset) {
+		Reg64 reg = target(dst);
+		_asm.add( new Mov_rrm( new R(base, offset, reg) ) );
+		define(dst, reg);
+	}
+
+	private void arithmetic(Instr ins) {
+		Reg64 left = use(ins.uses[0], 0);
+		Reg64 right = use(ins.uses[1], 1);
+		Reg64 dst = target(ins.dst);
+		boolean commutes = ins.op != Opcode.SUB;
+		if (dst == right && dst != left) {
+			if (commutes) {
+				operate(ins.op, dst, left);
+				define(ins.dst, dst);
+				return;
+			}
+			dst = Reg64.RAX; // would overwrite right before it is read
+		}
+		if (dst != left) {
+			_asm.add( new Mov_rmr( new R(dst, left) ) );
+		}
+		operate(ins.op, dst, right);
+		define(ins.dst, dst);
+	}
+
+	// lhs := lhs op rhs
+	private void operate(Opcode op, Reg64 lhs, Reg64 rhs) {
+		switch (op) {
+			case ADD:
+				_asm.add( new Add( new R(lhs, rhs) ) );
+				break;
+			case SUB:
+				_asm.add( new Sub( new R(lhs, rhs) ) );
+				break;
+			case MUL:
+				_asm.add( new Imul( lhs, new R(rhs, true) ) );
+				break;
+			case AND:
+				_asm.add( new And( new R(lhs, rhs) ) );
+				break;
+			case OR:
+				_asm.add( new Or( new R(lhs, rhs) ) );
+				break;
+			default:
+				throw new IllegalArgumentException("Not arithmetic: " + op);
+		}
+	}
+
+	// The code of ins between pushes and pops of the registers still in use, the result comes back in RAX
+	private void saveAround(Instr ins, Runnable body) {
+		List<Reg64> live = _saved.get(ins);
+		for (Reg64 r : live) {
+			_asm.add( new Push(r) );
+		}
+		body.run();
+		if (ins.dst >= 0) {
+			define(ins.dst, Reg64.RAX);
+		}
+		for (int i = live.size() - 1; i >= 0; i--) {
+			_asm.add( new Pop(live.get(i)) );
+		}
+	}
+
+	////////////////////////////////////
+	/* CONTROL FLOW */
+	////////////////////////////////////
+
+	// The comparison a block branches on, when it is the block's last instruction and only the
+	//  branch reads it, so the flags can go straight to a conditional jump
+	private Instr fusedCompare(BasicBlock b) {
+		if (b.terminator.op != Opcode.BRANCH || b.instrs.isEmpty()) {
+			return null;
+		}
+		Instr ins = b.instrs.get(b.instrs.size() - 1);
+		int cond = b.terminator.uses[0];
+		return ins.op == Opcode.CMP && ins.dst == cond ? ins : null;
+	}
+
+	private void terminate(BasicBlock b, Instr fused, BasicBlock next) {
+		Instr t = b.terminator;
+		switch (t.op) {
+			case JUMP:
+				if (b.taken != next) {
+					jump(null, b.taken);
+				}
+				break;
+			case BRANCH:
+				Condition whenTaken;
+				if (fused != null) {
+					Reg64 left = use(fused.uses[0], 0);
+					Reg64 right = use(fused.uses[1], 1);
+					_asm.add( new Cmp( new R(left, right) ) );
+					whenTaken = fused.cond;
+				} else {
+					_asm.add( new Cmp( new R(use(t.uses[0], 0), true), 0 ) );
+					whenTaken = Condition.NE;
+				}
+				if (b.notTaken == next) {
+					jump(whenTaken, b.taken);
+				} else {
+					jump(negate(whenTaken), b.notTaken);
+					if (b.taken != next) {
+						jump(null, b.taken);
+					}
+				}
+				break;
+			case RET:
+				if (t.uses.length > 0) {
+					Reg64 value = use(t.uses[0], 0);
+					_asm.add( new Mov_rmr( new R(Reg64.RAX, value) ) );
+				}
+				if (next != null) {
+					jump(null, null);
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Not a terminator: " + t.op);
+		}
+	}
+
+	// A jump to target, or to the epilogue for null
+	private void jump(Condition cond, BasicBlock target) {
+		Label label = target == null ? _exit : _labels.get(target);
+		if (cond == null) {
+			_asm.addJmp(label);
+		} else {
+			_asm.addCondJmp(cond, label);
+		}
+	}
+
+	private static Condition negate(Condition cond) {
+		switch (cond) {
+			case E: return Condition.NE;
+			case NE: return Condition.E;
+			case LT: return Condition.GTE;
+			case GTE: return Condition.LT;
+			case LTE: return Condition.GT;
+			case GT: return Condition.LTE;
+		}
+		throw new IllegalArgumentException("Illegal condition: " + cond);
+	}
+}
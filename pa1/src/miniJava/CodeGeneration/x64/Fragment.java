@@ -0,0 +1,178 @@
+package miniJava.CodeGeneration.x64;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A stretch of an InstructionList cut out after Peephole and before link, in a form that outlives
+//  the list: the bytes of every instruction that isn't a jump or call, and the jumps and calls
+//  as relocations. Their targets are either a place in the fragment or, for labels given a
+//  symbol, the symbol. Pasted into another list it comes out as the same instructions with
+//  its jumps and calls on that list's labels, so link lays it out just as it would have the
+//  original. Entries are the symbols of the labels bound inside it, they get bound again.
+public class Fragment {
+	private static final byte CODE = 0;
+	private static final byte JMP = 1;
+	private static final byte JCC = 2;
+	private static final byte CALL = 3;
+
+	private final List<Piece> _pieces = new ArrayList<Piece>();
+	private final Map<String, Integer> _entries = new LinkedHashMap<String, Integer>();
+
+	private static class Piece {
+		byte kind;
+		byte[] bytes; // CODE only
+		Condition cond; // JCC only
+		String symbol; // the target, or null for the place local in the fragment
+		int local;
+	}
+
+	// An instruction that is nothing but the bytes it was encoded to
+	private static class Encoded extends Instruction {
+		Encoded(byte[] bytes) {
+			opcodeBytes.write(bytes, 0, bytes.length);
+		}
+	}
+
+	// Cuts asm into a fragment per start, from that label up to the next one, the last one up to
+	//  the end. The starts have to be bound and in order.
+	public static List<Fragment> cut(InstructionList asm, List<Label> starts, Map<Label, String> symbols) {
+		List<Instruction> instructions = asm.instructions();
+		int[] from = new int[starts.size() + 1];
+		for( int k = 0; k < starts.size(); ++k )
+			from[k] = starts.get(k).idx;
+		from[starts.size()] = instructions.size();
+
+		List<Fragment> fragments = new ArrayList<Fragment>();
+		for( int k = 0; k < starts.size(); ++k ) {
+			Fragment f = new Fragment();
+			for( int i = from[k]; i < from[k + 1]; ++i )
+				f._pieces.add(piece(asm, instructions.get(i), from[k], from[k + 1], symbols));
+			fragments.add(f);
+		}
+		for( Map.Entry<Label, String> e : symbols.entrySet() ) {
+			int idx = e.getKey().idx;
+			if( idx < 0 )
+				continue;
+			int k = Arrays.binarySearch(from, 0, starts.size(), idx);
+			if( k < 0 )
+				k = -k - 2; // the fragment starting last before it
+			if( k >= 0 && idx < from[k + 1] )
+				fragments.get(k)._entries.put(e.getValue(), idx - from[k]);
+		}
+		return fragments;
+	}
+
+	private static Piece piece(InstructionList asm, Instruction ins, int from, int to, Map<Label, String> symbols) {
+		Piece p = new Piece();
+		Label target = asm.targetOf(ins);
+		if( target == null ) {
+			p.kind = CODE;
+			p.bytes = ins.getBytes();
+			return p;
+		}
+		p.kind = asm.isCall(ins) ? CALL : asm.conditionOf(ins) == null ? JMP : JCC;
+		p.cond = asm.conditionOf(ins);
+		p.symbol = symbols.get(target);
+		if( p.symbol == null ) {
+			if( target.idx < from || target.idx > to )
+				throw new IllegalStateException("Jump out of a fragment to a label without a symbol");
+			p.local = target.idx - from;
+		}
+		return p;
+	}
+
+	// Adds the fragment to asm, its entries bound to the labels symbols gives for them
+	public void pasteInto(InstructionList asm, Map<String, Label> symbols) {
+		int n = _pieces.size();
+		Label[] local = new Label[n + 1];
+		for( Piece p : _pieces )
+			if( p.kind != CODE && p.symbol == null && local[p.local] == null )
+				local[p.local] = new Label();
+		List<List<Label>> entries = new ArrayList<List<Label>>();
+		for( int i = 0; i <= n; ++i )
+			entries.add(new ArrayList<Label>());
+		for( Map.Entry<String, Integer> e : _entries.entrySet() )
+			entries.get(e.getValue()).add(label(symbols, e.getKey()));
+
+		for( int i = 0; i <= n; ++i ) {
+			for( Label l : entries.get(i) )
+				asm.bind(l);
+			if( local[i] != null )
+				asm.bind(local[i]);
+			if( i == n )
+				break;
+			Piece p = _pieces.get(i);
+			Label target = p.kind == CODE ? null : p.symbol != null ? label(symbols, p.symbol) : local[p.local];
+			if( p.kind == CODE )
+				asm.add(new Encoded(p.bytes));
+			else if( p.kind == CALL )
+				asm.addCall(target);
+			else if( p.kind == JCC )
+				asm.addCondJmp(p.cond, target);
+			else
+				asm.addJmp(target);
+		}
+	}
+
+	private static Label label(Map<String, Label> symbols, String symbol) {
+		Label l = symbols.get(symbol);
+		if( l == null )
+			throw new IllegalStateException("No label for " + symbol);
+		return l;
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(_pieces.size());
+		for( Piece p : _pieces ) {
+			out.writeByte(p.kind);
+			if( p.kind == CODE ) {
+				out.writeShort(p.bytes.length);
+				out.write(p.bytes);
+				continue;
+			}
+			if( p.kind == JCC )
+				out.writeByte(p.cond.ordinal());
+			out.writeBoolean(p.symbol != null);
+			if( p.symbol != null )
+				out.writeUTF(p.symbol);
+			else
+				out.writeInt(p.local);
+		}
+		out.writeInt(_entries.size());
+		for( Map.Entry<String, Integer> e : _entries.entrySet() ) {
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue());
+		}
+	}
+
+	public static Fragment read(DataInputStream in) throws IOException {
+		Fragment f = new Fragment();
+		int n = in.readInt();
+		for( int i = 0; i < n; ++i ) {
+			Piece p = new Piece();
+			p.kind = in.readByte();
+			if( p.kind == CODE ) {
+				p.bytes = new byte[in.readUnsignedShort()];
+				in.readFully(p.bytes);
+			} else {
+				if( p.kind == JCC )
+					p.cond = Condition.values()[in.readByte()];
+				if( in.readBoolean() )
+					p.symbol = in.readUTF();
+				else
+					p.local = in.readInt();
+			}
+			f._pieces.add(p);
+		}
+		int entries = in.readInt();
+		for( int i = 0; i < entries; ++i )
+			f._entries.put(in.readUTF(), in.readInt());
+		return f;
+	}
+}
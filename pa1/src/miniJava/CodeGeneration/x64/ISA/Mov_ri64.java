@@ -5,8 +5,13 @@ import miniJava.CodeGeneration.x64.Reg64;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Mov_ri64 extends Instruction {
+	public Reg64 reg; // kept so passes over the code can tell the operands
+	public long imm;
+	
 	// mov r64,imm64 variant
 	public Mov_ri64(Reg64 reg, long imm64) {
+		this.reg = reg;
+		this.imm = imm64;
 		rexW = true; // operand is 64bit
 		// TODO: first, check if the Reg64 is R8-R15, if it is, set one of rexB,rexW,rexR,rexX to true (which one?)
 		// TODO: second, find the opcode for pop r, where r is a plain 64-bit register
@@ -5,8 +5,11 @@ import miniJava.CodeGeneration.x64.R;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Mov_rmr extends Instruction {
+	public R modrmsib; // kept so passes over the code can tell the operands
+	
 	// rm,r variants
 	public Mov_rmr(R modrmsib) {
+		this.modrmsib = modrmsib;
 		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		opcodeBytes.write(0x89);
@@ -6,12 +6,15 @@ import miniJava.CodeGeneration.x64.Reg64;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Push extends Instruction {
+	public Reg64 reg; // set for push r64 only, so passes over the code can tell
+	
 	public Push(int imm) {
 		opcodeBytes.write(0x68);
 		x64.writeInt(immBytes, imm);
 	}
 	
 	public Push(Reg64 reg) {
+		this.reg = reg;
 		// no need to set rexW, push is always r64 (cannot access ecx/r9d)
 		if( reg.getIdx() > 7 )
 			rexB = true;
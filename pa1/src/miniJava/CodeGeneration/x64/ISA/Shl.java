@@ -0,0 +1,17 @@
+package miniJava.CodeGeneration.x64.ISA;
+
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.R;
+import miniJava.CodeGeneration.x64.x64;
+
+public class Shl extends Instruction {
+	// shl rm,imm8, where rm:= rm << imm8
+	public Shl(R modrmsib, int imm8) {
+		opcodeBytes.write(0xC1);
+		modrmsib.SetRegR(x64.mod543ToReg(4));
+		byte[] rmsib = modrmsib.getBytes();
+		importREX(modrmsib);
+		x64.writeBytes(immBytes,rmsib);
+		immBytes.write(imm8);
+	}
+}
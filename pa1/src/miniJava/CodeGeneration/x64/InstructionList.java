@@ -3,12 +3,46 @@ package miniJava.CodeGeneration.x64;
 import java.util.List;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import miniJava.CodeGeneration.x64.ISA.Call;
+import miniJava.CodeGeneration.x64.ISA.CondJmp;
+import miniJava.CodeGeneration.x64.ISA.Jmp;
 
 public class InstructionList {
 	private List<Instruction> _instructions = new ArrayList<Instruction>();
 	private int _currentSize = 0;
 	private int _currentIdx = 0;
 	private int _markStart = -1;
+	private List<Label> _labels = new ArrayList<Label>();
+	private Map<Instruction, Relocation> _relocations = new IdentityHashMap<Instruction, Relocation>();
+	
+	// A jump or call naming its target by label. It sits in the list as a rel32 placeholder
+	//  until link picks the encoding and fills in the offset.
+	private static class Relocation {
+		final Label target;
+		final Condition cond; // null for jmp and call
+		final boolean call;
+		boolean wide;
+		
+		Relocation(Label target, Condition cond, boolean call) {
+			this.target = target;
+			this.cond = cond;
+			this.call = call;
+		}
+		
+		int size() {
+			if( !wide ) return 2;
+			return cond == null ? 5 : 6;
+		}
+		
+		Instruction encode(int curAddr, int destAddr) {
+			if( call ) return new Call(curAddr, destAddr);
+			if( cond == null ) return new Jmp(curAddr, destAddr, !wide);
+			return new CondJmp(cond, curAddr, destAddr, !wide);
+		}
+	}
 	
 	public int getSize() {
 		return _currentSize;
@@ -45,17 +79,118 @@ public class InstructionList {
 		markOutputStart(); // next invocation will start after the output bytes
 	}
 	
-	public void patch(int idx, Instruction newIns) {
-		Instruction old = _instructions.get(idx);
-		int newLen = newIns.size();
-		int oldLen = old.size();
-		if( oldLen != newLen ) {
-			// very dangerous, maybe even worth reporting
-			_currentSize += newLen - oldLen;
+	// label goes in front of whatever instruction is added next
+	public void bind(Label label) {
+		if( label.isBound() )
+			throw new IllegalStateException("Label bound twice");
+		label.idx = _currentIdx;
+		_labels.add(label);
+	}
+	
+	public int addJmp(Label target) {
+		return addRelocated( new Jmp(0), new Relocation(target, null, false) );
+	}
+	
+	public int addCondJmp(Condition cond, Label target) {
+		return addRelocated( new CondJmp(cond, 0), new Relocation(target, cond, false) );
+	}
+	
+	public int addCall(Label target) {
+		return addRelocated( new Call(0), new Relocation(target, null, true) );
+	}
+	
+	private int addRelocated(Instruction placeholder, Relocation r) {
+		_relocations.put(placeholder, r);
+		return add(placeholder);
+	}
+	
+	// Encodes every jump and call for its label, jumps as rel8 wherever that reaches.
+	//  All jumps start out short and get widened when their target is out of range. Widening
+	//  only ever moves code further apart, so whatever it pushes out of range gets widened on
+	//  the next round too, and once a round widens nothing the layout is final.
+	public void link() {
+		int n = _instructions.size();
+		Relocation[] at = new Relocation[n];
+		for( Instruction ins : _instructions ) {
+			Relocation r = _relocations.get(ins);
+			if( r == null ) continue;
+			if( !r.target.isBound() )
+				throw new IllegalStateException("Jump to a label that was never bound");
+			r.wide = r.call;
+			at[ins.listIdx] = r;
 		}
-		newIns.startAddress = old.startAddress;
-		newIns.listIdx = idx;
-		_instructions.set(idx, newIns);
+		
+		int[] start = new int[n + 1];
+		boolean widened = true;
+		while( widened ) {
+			widened = false;
+			for( int i = 0; i < n; ++i )
+				start[i + 1] = start[i] + ( at[i] != null ? at[i].size() : _instructions.get(i).size() );
+			for( int i = 0; i < n; ++i ) {
+				if( at[i] == null || at[i].wide ) continue;
+				int rel = start[at[i].target.idx] - start[i + 1];
+				if( rel < Byte.MIN_VALUE || rel > Byte.MAX_VALUE ) {
+					at[i].wide = true;
+					widened = true;
+				}
+			}
+		}
+		
+		_relocations.clear();
+		List<Instruction> linked = new ArrayList<Instruction>();
+		for( int i = 0; i < n; ++i )
+			linked.add( at[i] != null ? at[i].encode(start[i], start[at[i].target.idx]) : _instructions.get(i) );
+		rebuild(linked);
+	}
+	
+	// Final once link has run, before that jumps still count as rel32
+	public int addressOf(Label label) {
+		if( label.idx < _instructions.size() )
+			return _instructions.get(label.idx).startAddress;
+		return _currentSize;
+	}
+	
+	// Every instruction in order, for passes rewriting the whole list
+	List<Instruction> instructions() {
+		return _instructions;
+	}
+	
+	List<Label> labels() {
+		return _labels;
+	}
+	
+	// Label a relocated jump or call goes to, null for any other instruction
+	Label targetOf(Instruction ins) {
+		Relocation r = _relocations.get(ins);
+		return r == null ? null : r.target;
+	}
+	
+	boolean isCall(Instruction ins) {
+		Relocation r = _relocations.get(ins);
+		return r != null && r.call;
+	}
+	
+	// Condition of a relocated conditional jump, null for any other instruction
+	Condition conditionOf(Instruction ins) {
+		Relocation r = _relocations.get(ins);
+		return r == null ? null : r.cond;
+	}
+	
+	// Swaps in a rewritten list and gives every instruction its new index and address. Whoever
+	//  rewrote it moves the labels, relocations of instructions that are gone are dropped.
+	//  The output mark pointed into the old list and is dropped too.
+	void rebuild(List<Instruction> instructions) {
+		_instructions = new ArrayList<Instruction>();
+		_currentSize = 0;
+		_currentIdx = 0;
+		_markStart = -1;
+		for( Instruction ins : instructions )
+			add(ins);
+		Map<Instruction, Relocation> kept = new IdentityHashMap<Instruction, Relocation>();
+		for( Instruction ins : _instructions )
+			if( _relocations.containsKey(ins) )
+				kept.put(ins, _relocations.get(ins));
+		_relocations = kept;
 	}
 	
 	public byte[] getBytes() {
@@ -0,0 +1,12 @@
+package miniJava.CodeGeneration.x64;
+
+// A place in the code that jumps and calls can name before anyone knows where it ends up.
+//  InstructionList.bind puts it in front of the next instruction added, link works out the
+//  address once all code is out.
+public class Label {
+	int idx = -1; // index of the instruction it sits in front of, -1 until bound
+
+	public boolean isBound() {
+		return idx >= 0;
+	}
+}
@@ -0,0 +1,178 @@
+package miniJava.CodeGeneration.x64;
+
+import miniJava.CodeGeneration.x64.ISA.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Cleans up what the code generators leave behind once all code is out, by looking at
+//  neighbouring instructions and rewriting or dropping them:
+//   push r / pop r          -> nothing
+//   push r1 / pop r2        -> mov r2, r1
+//   push a / load a / mov b, a / pop a -> load b
+//   mov [m], r / mov r, [m] -> mov [m], r
+//   jmp or jcc to the instruction right after it -> nothing
+//  Runs before InstructionList.link, while jumps and calls still name labels. Nothing a
+//  label sits in front of gets folded into the middle of a rewrite, and the labels move along
+//  with what they were in front of.
+public class Peephole {
+	private final InstructionList _asm;
+	private final List<Entry> _out = new ArrayList<Entry>();
+	private boolean _pinNext; // a dropped instruction had a label, whatever comes next takes it
+
+	private static class Entry {
+		Instruction ins;
+		int oldIdx; // where it, or the first instruction it replaces, was in the list
+		boolean pinned; // a label is in front of it, it can only start a rewrite
+
+		Entry(Instruction ins, int oldIdx) {
+			this.ins = ins;
+			this.oldIdx = oldIdx;
+		}
+	}
+
+	public Peephole(InstructionList asm) {
+		this._asm = asm;
+	}
+
+	public void run() {
+		List<Instruction> instructions = _asm.instructions();
+		boolean[] labelled = new boolean[instructions.size() + 1];
+		for( Label l : _asm.labels() )
+			labelled[l.idx] = true;
+
+		for( Instruction ins : instructions ) {
+			Entry e = new Entry(ins, ins.listIdx);
+			while( !_out.isEmpty() && jumpsTo(last(), e) )
+				drop();
+			e.pinned = labelled[e.oldIdx] || _pinNext;
+			_pinNext = false;
+			_out.add(e);
+			while( rewrite() );
+		}
+
+		for( Label l : _asm.labels() )
+			l.idx = relocate(l.idx);
+		List<Instruction> rewritten = new ArrayList<Instruction>();
+		for( Entry e : _out )
+			rewritten.add(e.ins);
+		_asm.rebuild(rewritten);
+	}
+
+	// New index of what was at oldIdx, or of the first thing after it that is left
+	private int relocate(int oldIdx) {
+		int lo = 0, hi = _out.size();
+		while( lo < hi ) {
+			int mid = (lo + hi) >>> 1;
+			if( _out.get(mid).oldIdx < oldIdx )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private Entry last() {
+		return _out.get(_out.size() - 1);
+	}
+
+	private void drop() {
+		_pinNext |= last().pinned;
+		_out.remove(_out.size() - 1);
+	}
+
+	// A jump landing on next, with everything in between already dropped
+	private boolean jumpsTo(Entry jmp, Entry next) {
+		Label target = _asm.targetOf(jmp.ins);
+		if( target == null || _asm.isCall(jmp.ins) )
+			return false;
+		return target.idx > jmp.oldIdx && target.idx <= next.oldIdx;
+	}
+
+	// Tries the patterns on the instructions added last
+	private boolean rewrite() {
+		return pushPop() || reload() || loadThroughStack();
+	}
+
+	// back = 0 is the last instruction
+	private Entry at(int back) {
+		return _out.get(_out.size() - 1 - back);
+	}
+
+	// push r / pop r goes away, push r1 / pop r2 is mov r2, r1
+	private boolean pushPop() {
+		if( _out.size() < 2 || at(0).pinned )
+			return false;
+		Entry a = at(1);
+		Entry b = at(0);
+		if( !(a.ins instanceof Push && b.ins instanceof Pop) )
+			return false;
+		Reg64 from = ((Push) a.ins).reg;
+		Reg64 to = ((Pop) b.ins).reg;
+		if( from == null || to == null )
+			return false;
+		drop();
+		if( from == to ) {
+			drop();
+			return true;
+		}
+		a.ins = new Mov_rmr( new R(to, from) ); // mov to, from
+		return true;
+	}
+
+	// mov [base + disp], r / mov r, [base + disp]: r still holds what it stored
+	private boolean reload() {
+		if( _out.size() < 2 || at(0).pinned )
+			return false;
+		if( !(at(1).ins instanceof Mov_rmr && at(0).ins instanceof Mov_rrm) )
+			return false;
+		R store = ((Mov_rmr) at(1).ins).modrmsib;
+		R load = ((Mov_rrm) at(0).ins).modrmsib;
+		if( !memory(store) || !memory(load) || store.getRegDisp() != load.getRegDisp()
+				|| store.getDisp() != load.getDisp() || store.getRegR() != load.getRegR() )
+			return false;
+		drop();
+		return true;
+	}
+
+	// push a / load a / mov b, a / pop a: loading b directly leaves a as it was too
+	private boolean loadThroughStack() {
+		if( _out.size() < 4 || at(0).pinned || at(1).pinned || at(2).pinned )
+			return false;
+		Entry push = at(3);
+		Entry pop = at(0);
+		if( !(push.ins instanceof Push && at(1).ins instanceof Mov_rmr && pop.ins instanceof Pop) )
+			return false;
+		Reg64 a = ((Push) push.ins).reg;
+		R copy = ((Mov_rmr) at(1).ins).modrmsib;
+		if( a == null || a != ((Pop) pop.ins).reg || copy.getRegR() != a || !(copy.getRegRM() instanceof Reg64) )
+			return false;
+		Reg64 b = (Reg64) copy.getRegRM();
+		Instruction direct = b == a || b == Reg64.RSP ? null : loadInto(at(2).ins, a, b);
+		if( direct == null )
+			return false;
+		drop();
+		drop();
+		drop();
+		push.ins = direct;
+		return true;
+	}
+
+	// ins loading a from memory or an immediate, made to load b instead. Null for anything else,
+	//  and for loads relative to rsp, those would see the push that is gone.
+	private static Instruction loadInto(Instruction ins, Reg64 a, Reg64 b) {
+		if( ins instanceof Mov_ri64 && ((Mov_ri64) ins).reg == a )
+			return new Mov_ri64(b, ((Mov_ri64) ins).imm);
+		if( !(ins instanceof Mov_rrm) )
+			return null;
+		R m = ((Mov_rrm) ins).modrmsib;
+		if( !memory(m) || m.getRegR() != a || m.getRegDisp() == a || m.getRegDisp() == Reg64.RSP )
+			return null;
+		return new Mov_rrm( new R(m.getRegDisp(), m.getDisp(), b) ); // mov b, [base + disp]
+	}
+
+	// [base + disp], nothing indexed
+	private static boolean memory(R m) {
+		return m.getRegDisp() != null && m.getRegIdx() == null;
+	}
+}
@@ -100,6 +100,27 @@ public class R /* Formally ModRMSIB */ {
 	//public ModRMSIB() {
 	//}
 	
+	// operands as they were given, for passes looking at instructions after the fact
+	public Reg getRegRM() {
+		return rm;
+	}
+	
+	public Reg getRegR() {
+		return r;
+	}
+	
+	public Reg64 getRegDisp() {
+		return rdisp;
+	}
+	
+	public Reg64 getRegIdx() {
+		return ridx;
+	}
+	
+	public int getDisp() {
+		return disp;
+	}
+	
 	public void SetRegRM(Reg rm) {
 		if( rm.getIdx() > 7 ) rexB = true;
 		rexW = rexW || rm instanceof Reg64;
@@ -0,0 +1,66 @@
+package miniJava;
+
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.CompactAST;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.AbstractSyntaxTrees.TypeFactory;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.ContextualAnalysis.Identification;
+import miniJava.ContextualAnalysis.PredefinedClasses;
+import miniJava.ContextualAnalysis.TypeChecking;
+
+// Analysis and code generation for a program whose method bodies the parser left in a CompactAST,
+//  a class at a time: its bodies are expanded, identified, type checked and generated, then let
+//  go of again. Besides the store, only one class's statements are ever objects. Reports exactly
+//  what the separate passes would: identification errors alone if there are any, otherwise type
+//  errors and then code generation's.
+class CompactBuild {
+  private ErrorReporter _errors;
+  private TypeFactory _types;
+  private PredefinedClasses _predefined;
+  private CompactAST _compact;
+
+  CompactBuild(ErrorReporter errors, TypeFactory types, PredefinedClasses predefined, CompactAST compact) {
+    this._errors = errors;
+    this._types = types;
+    this._predefined = predefined;
+    this._compact = compact;
+  }
+
+  void build(Package prog, String outputFile, boolean ir) {
+    _compact.trim(); // the parsers are done with it
+    Identification identification = new Identification(_errors, prog, _predefined);
+    identification.declareClasses(prog);
+    // A class only sees the others' member types, resolved up front. Whatever doesn't resolve is
+    //  reported when the class itself is identified.
+    Identification signatures = new Identification(new ErrorReporter(), identification);
+    for (ClassDecl c : prog.classDeclList) {
+      signatures.identifySignatures(c);
+    }
+
+    ErrorReporter typeErrors = new ErrorReporter();
+    ErrorReporter codeErrors = new ErrorReporter();
+    TypeChecking typeChecker = new TypeChecking(typeErrors, _types);
+    CodeGenerator codeGen = new CodeGenerator(codeErrors, outputFile, ir);
+    codeGen.start(prog);
+    for (ClassDecl c : prog.classDeclList) {
+      _compact.expand(c);
+      identification.identifyClass(c);
+      if (!_errors.hasErrors()) { // neither pass would run after an identification error
+        typeChecker.checkClass(c);
+        codeGen.generate(c);
+      }
+      _compact.release(c);
+    }
+    if (_errors.hasErrors()) {
+      return;
+    }
+    codeGen.finish();
+    _errors.merge(typeErrors, "");
+    _errors.merge(codeErrors, "");
+    if (!_errors.hasErrors()) {
+      codeGen.output(prog);
+      _errors.merge(codeErrors, ""); // nothing but what writing a.out reported
+    }
+  }
+}
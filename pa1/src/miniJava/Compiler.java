@@ -3,42 +3,109 @@ package miniJava;
 import miniJava.AbstractSyntaxTrees.AST;
 import miniJava.AbstractSyntaxTrees.ASTDisplay;
 import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.ClassDeclList;
+import miniJava.AbstractSyntaxTrees.CompactAST;
+import miniJava.AbstractSyntaxTrees.ListArena;
 import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.AbstractSyntaxTrees.TypeFactory;
 import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.ContextualAnalysis.InterleavedAnalysis;
 import miniJava.ContextualAnalysis.Identification;
+import miniJava.ContextualAnalysis.PredefinedClasses;
 import miniJava.ContextualAnalysis.TypeChecking;
+import miniJava.SyntacticAnalyzer.NameTable;
 import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.ScanBuffers;
 import miniJava.SyntacticAnalyzer.Scanner;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class Compiler {
   // Main function, the file to compile will be an argument.
-  public static void main(String[] args) {
+  //  "--daemon" instead keeps a compiler running behind a socket, "--client ..." hands the rest
+  //  of the arguments to that daemon.
+  public static void main(String[] args) throws IOException {
+    if (args.length > 0 && args[0].equals("--daemon")) {
+      new CompilerDaemon(CompilerDaemon.socketPath()).serve();
+      return;
+    } else if (args.length > 0 && args[0].equals("--client")) {
+      CompilerDaemon.forward(CompilerDaemon.socketPath(), Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+
     // TODO: Instantiate the ErrorReporter object
     ErrorReporter errorReports = new ErrorReporter();
+    // One spelling table for the whole compilation, every copy of a name shares a String
+    NameTable names = new NameTable();
+    compile(null, args, names, new ListArena(), null, new PredefinedClasses(), errorReports);
+  }
+
+  // One compilation. Relative paths, a.out included, are taken against cwd (null for the JVM's own).
+  //  "--incremental" skips the build when nothing changed since the last successful one and
+  //  otherwise only analyses and generates the classes that changed, see BuildCache,
+  //  "--interleaved" type checks each class right after identifying it, "--parallel" does the same
+  //  with the classes spread over all cores, "--ir" generates code through the IR and its passes.
+  //  "--compact" keeps method bodies in a CompactAST and builds a class at a time, see CompactBuild,
+  //  it takes the place of "--interleaved" and "--parallel" and gives way to "--incremental".
+  //  The parser builds its lists in lists, the scanner reads into buffers (null to map the files).
+  static void compile(File cwd, String[] args, NameTable names, ListArena lists, ScanBuffers buffers,
+      PredefinedClasses predefined, ErrorReporter errorReports) {
+    boolean incremental = false;
+    boolean interleaved = false;
+    boolean parallel = false;
+    boolean ir = false;
+    boolean compactBodies = false;
+    List<String> paths = new ArrayList<String>();
+    for (String arg : args) {
+      if (arg.equals("--incremental")) {
+        incremental = true;
+      } else if (arg.equals("--interleaved")) {
+        interleaved = true;
+      } else if (arg.equals("--parallel")) {
+        interleaved = true;
+        parallel = true;
+      } else if (arg.equals("--ir")) {
+        ir = true;
+      } else if (arg.equals("--compact")) {
+        compactBodies = true;
+      } else {
+        paths.add(arg);
+      }
+    }
 
     // TODO: Check to make sure a file path is given in args
-    // TODO: Create the inputStream using new FileInputStream
-    FileInputStream inputStream = null;
-    try {
-      inputStream = new FileInputStream(args[0]);
-    } catch (FileNotFoundException e) {
-      //      throw new RuntimeException(e);
+    // More than one argument, or a directory, compiles every file together as one program
+    List<File> files = sourceFiles(cwd, paths);
+    if (files == null) {
       System.out.println("Error \nFile Not Found");
       return;
     }
 
-    // TODO: Instantiate the scanner with the input stream and error object
-    Scanner scanner = new Scanner(inputStream, errorReports);
-
-    // TODO: Instantiate the parser with the scanner and error object
-    Parser parser = new Parser(scanner, errorReports);
+    String outputFile = new File(cwd, "a.out").getPath();
+    BuildCache cache = incremental ? new BuildCache(cwd, files, outputFile, ir) : null;
+    if (cache != null && cache.upToDate()) {
+      System.out.println("Success");
+      return;
+    }
 
-    // TODO: Call the parser's parse function
-//    AST ast = parser.parse();
-    Package prog = parser.parse();
+    CompactAST compact = compactBodies && cache == null ? new CompactAST() : null;
+    Package prog;
+    if (files.size() == 1) {
+      prog = parseFile(files.get(0), names, lists, buffers, incremental, compact, errorReports);
+    } else {
+      prog = parseFiles(files, names, lists, buffers, incremental, compact, errorReports);
+    }
 
     // JUST TESTING THIS FOR FUN DO NOT MIND THIS
     //    for (ClassDecl c : prog.classDeclList) {
@@ -50,8 +117,26 @@ public class Compiler {
     //        return;
     //      }
     //    }
-    if (prog != null) {
-      Identification identification = new Identification(errorReports, prog);
+    // One instance of each type for the whole analysis, the type checker compares them by reference
+    TypeFactory types = new TypeFactory();
+    if (prog != null && compact != null) {
+      new CompactBuild(errorReports, types, predefined, compact).build(prog, outputFile, ir);
+      System.out.println(errorReports.hasErrors() ? "Error" : "Success");
+      errorReports.outputErrors();
+      return;
+    }
+    InterleavedAnalysis analysis = null;
+    Set<ClassDecl> changed = null;
+    if (prog != null && cache != null) {
+      // Takes the place of --interleaved, the classes the cache has are only declared
+      changed = cache.changedClasses(prog, predefined);
+      Identification identification = new Identification(errorReports, prog, predefined);
+      identification.parse(prog, changed);
+    } else if (prog != null && interleaved) {
+      analysis = new InterleavedAnalysis(errorReports, types, predefined, parallel);
+      analysis.parse(prog);
+    } else if (prog != null) {
+      Identification identification = new Identification(errorReports, prog, predefined);
       identification.parse(prog);
     } else {
       errorReports.reportError("Parsing error: Could not parse package");
@@ -60,21 +145,113 @@ public class Compiler {
       System.out.println("Error");
       errorReports.outputErrors();
     } else {
-      TypeChecking typeChecker = new TypeChecking(errorReports);
-      typeChecker.parse(prog);
+      if (analysis != null) {
+        analysis.reportTypeErrors();
+      } else if (changed != null) {
+        TypeChecking typeChecker = new TypeChecking(errorReports, types);
+        for (ClassDecl c : prog.classDeclList) {
+          if (changed.contains(c)) {
+            typeChecker.checkClass(c);
+          }
+        }
+      } else {
+        TypeChecking typeChecker = new TypeChecking(errorReports, types);
+        typeChecker.parse(prog);
+      }
 
-      CodeGenerator codeGen = new CodeGenerator(errorReports);
+      CodeGenerator codeGen = new CodeGenerator(errorReports, outputFile, ir);
+      if (cache != null) {
+        codeGen.reuse(cache.reusedCode());
+      }
       codeGen.parse(prog);
 
       if (errorReports.hasErrors()) {
         System.out.println("Error");
         errorReports.outputErrors();
       } else {
-
+        if (cache != null) {
+          cache.save(prog, codeGen);
+        }
         System.out.println("Success");
         //      ASTDisplay display = new ASTDisplay();
         //      display.showTree(ast);
       }
     }
   }
+
+  // The files named on the command line, with directories expanded to the .java files under them.
+  //  Null if nothing was named or something named doesn't exist.
+  private static List<File> sourceFiles(File cwd, List<String> args) {
+    List<File> files = new ArrayList<File>();
+    for (String arg : args) {
+      File f = new File(arg);
+      if (!f.isAbsolute()) {
+        f = new File(cwd, arg);
+      }
+      if (f.isDirectory()) {
+        try (Stream<Path> walk = Files.walk(f.toPath())) {
+          walk.filter(p -> p.toString().endsWith(".java") && Files.isRegularFile(p))
+              .sorted()
+              .forEach(p -> files.add(p.toFile()));
+        } catch (IOException e) {
+          return null;
+        }
+      } else if (f.isFile()) {
+        files.add(f);
+      } else {
+        return null;
+      }
+    }
+    return files.isEmpty() ? null : files;
+  }
+
+  private static Package parseFile(File file, NameTable names, ListArena lists, ScanBuffers buffers,
+      boolean hashClasses, CompactAST compact, ErrorReporter errorReports) {
+    // TODO: Create the inputStream using new FileInputStream
+    try (FileInputStream inputStream = new FileInputStream(file)) {
+      // TODO: Instantiate the scanner with the input stream and error object
+      Scanner scanner = new Scanner(inputStream, errorReports, names, buffers);
+
+      // TODO: Instantiate the parser with the scanner and error object
+      Parser parser = new Parser(scanner, errorReports, lists, hashClasses, compact);
+
+      // TODO: Call the parser's parse function
+      return parser.parse();
+    } catch (IOException e) {
+      errorReports.reportError("Unable to read " + file);
+      return null;
+    }
+  }
+
+  // Every file is scanned and parsed on the common fork-join pool with its own ErrorReporter,
+  //  the names and compact are shared, each file gets its own list arena and scan buffers. Errors are merged back in argument order so the output doesn't
+  //  depend on scheduling, and the classes of all files become one Package.
+  private static Package parseFiles(List<File> files, NameTable names, ListArena lists, ScanBuffers buffers,
+      boolean hashClasses, CompactAST compact, ErrorReporter errorReports) {
+    List<ErrorReporter> fileErrors = new ArrayList<ErrorReporter>();
+    List<ListArena> fileLists = new ArrayList<ListArena>();
+    List<ScanBuffers> fileBuffers = new ArrayList<ScanBuffers>();
+    for (int i = 0; i < files.size(); i++) {
+      fileErrors.add(new ErrorReporter());
+      fileLists.add(lists.child(i));
+      fileBuffers.add(buffers != null ? buffers.child(i) : null);
+    }
+    List<Package> progs = IntStream.range(0, files.size()).parallel()
+        .mapToObj(i -> parseFile(files.get(i), names, fileLists.get(i), fileBuffers.get(i), hashClasses, compact, fileErrors.get(i)))
+        .collect(Collectors.toList());
+
+    ClassDeclList cdl = new ClassDeclList();
+    boolean parsed = true;
+    for (int i = 0; i < files.size(); i++) {
+      errorReports.merge(fileErrors.get(i), files.get(i) + ": ");
+      if (progs.get(i) == null) {
+        parsed = false;
+      } else {
+        for (ClassDecl cd : progs.get(i).classDeclList) {
+          cdl.add(cd);
+        }
+      }
+    }
+    return parsed ? new Package(cdl, progs.get(0).posn) : null;
+  }
 }
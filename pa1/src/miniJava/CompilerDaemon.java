@@ -0,0 +1,142 @@
+package miniJava;
+
+import miniJava.AbstractSyntaxTrees.ListArena;
+import miniJava.ContextualAnalysis.PredefinedClasses;
+import miniJava.SyntacticAnalyzer.NameTable;
+import miniJava.SyntacticAnalyzer.ScanBuffers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+
+// A compiler that stays up between builds, so the JIT has already warmed up Scanner, Parser
+//  and CodeGenerator by the second request. A request is the client's working directory and
+//  its arguments; the reply is everything the compilation prints.
+public class CompilerDaemon {
+  private final Path _socket;
+  // Emptied after every request, or every identifier of every project served would stay interned
+  private final NameTable _names = new NameTable();
+  private final ErrorReporter _errors = new ErrorReporter();
+  // Its chunks are emptied after every request and refilled by the next
+  private final ListArena _lists = new ListArena();
+  // Every request reads its files into these, they only ever grow to the biggest file seen
+  private final ScanBuffers _buffers = new ScanBuffers();
+  // Nothing writes to them once built, every request declares the same ones
+  private final PredefinedClasses _predefined = new PredefinedClasses();
+
+  public CompilerDaemon(Path socket) {
+    this._socket = socket;
+  }
+
+  // -Dminijava.socket=path, or one socket per user in a directory of that user's in the temp directory
+  public static Path socketPath() {
+    String path = System.getProperty("minijava.socket");
+    if (path != null) {
+      return Paths.get(path);
+    }
+    return Paths.get(System.getProperty("java.io.tmpdir"), "minijava-" + System.getProperty("user.name"), "daemon.sock");
+  }
+
+  public void serve() throws IOException {
+    checkDirectory(_socket.toAbsolutePath().getParent(), true);
+    Files.deleteIfExists(_socket); // left behind by a daemon that didn't shut down cleanly
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(_socket));
+      System.out.println("miniJava daemon listening on " + _socket);
+      // One request at a time, the compiler phases all print to System.out
+      while (true) {
+        try (SocketChannel client = server.accept()) {
+          handle(client);
+        } catch (IOException e) {
+          System.err.println("Dropped a request: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void handle(SocketChannel client) throws IOException {
+    DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+    File cwd = new File(in.readUTF());
+    String[] args = new String[in.readInt()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = in.readUTF();
+    }
+
+    PrintStream reply = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+    PrintStream console = System.out;
+    System.setOut(reply);
+    try {
+      _errors.clear();
+      Compiler.compile(cwd, args, _names, _lists, _buffers, _predefined, _errors);
+    } catch (RuntimeException | StackOverflowError e) {
+      // a crash in one compilation goes back to whoever asked for it, the daemon keeps running
+      e.printStackTrace(reply);
+    } finally {
+      _lists.reset();
+      _names.clear();
+      System.setOut(console);
+      reply.flush();
+    }
+  }
+
+  // The client side: sends the working directory and the arguments, then prints whatever comes back
+  public static void forward(Path socket, String[] args) throws IOException {
+    checkDirectory(socket.toAbsolutePath().getParent(), false);
+    if (!Files.getOwner(socket, LinkOption.NOFOLLOW_LINKS).equals(currentUser())) {
+      throw new IOException(socket + " belongs to someone else");
+    }
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      out.writeUTF(new File("").getAbsolutePath());
+      out.writeInt(args.length);
+      for (String arg : args) {
+        out.writeUTF(arg);
+      }
+      out.flush();
+      Channels.newInputStream(channel).transferTo(System.out);
+      System.out.flush();
+    }
+  }
+
+  // Anyone who can write to the socket's directory could put their own socket there and be sent
+  //  every source file, anyone who can search it could connect to the daemon and have it read
+  //  files as us. So it has to be a real directory of ours that nobody else can get into. The
+  //  daemon creates it like that when it isn't there yet, the client only checks.
+  private static void checkDirectory(Path dir, boolean create) throws IOException {
+    if (create && Files.notExists(dir, LinkOption.NOFOLLOW_LINKS)) {
+      Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(EnumSet.of(
+          PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE)));
+    }
+    if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+      throw new IOException(dir + " is not a directory");
+    } else if (!Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS).equals(currentUser())) {
+      throw new IOException(dir + " belongs to someone else");
+    }
+    for (PosixFilePermission p : Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS)) {
+      if (!p.name().startsWith("OWNER_")) {
+        throw new IOException(dir + " is open to other users, it should be mode 700");
+      }
+    }
+  }
+
+  private static UserPrincipal currentUser() throws IOException {
+    return FileSystems.getDefault().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+  }
+}
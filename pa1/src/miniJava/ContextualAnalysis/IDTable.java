@@ -2,32 +2,131 @@ package miniJava.ContextualAnalysis;
 
 import miniJava.AbstractSyntaxTrees.*;
 
-import java.util.HashMap;
-import java.util.Map;
-
+// Declarations keyed by an (owner, name) pair: (class, class) for classes, (class, member) for
+//  members and (null, name) for locals. Open addressing over parallel arrays, so a lookup hashes
+//  the two spellings once and allocates nothing. Lookups never write, so a table that is done
+//  being filled can be read from several threads.
 public class IDTable {
-    private Map<String, Declaration> table;
+    private String[] owners;
+    private String[] names;
+    private Declaration[] decls;
+    private int count;
 
     public IDTable() {
-        this.table = new HashMap<>();
+        this(8);
+    }
+
+    public IDTable(int expected) {
+        int capacity = 8;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        owners = new String[capacity];
+        names = new String[capacity];
+        decls = new Declaration[capacity];
     }
 
-    public void addDeclaration(String identifier, Declaration declaration) throws Exception { //throws Identification.IdentificationError {
-        if (table.containsKey(identifier) ){ //&& declaration.getClass() == table.get(identifier).getClass()) {
-//            throw new Identification.IdentificationError();
+    public void addDeclaration(String owner, String name, Declaration declaration) throws Exception {
+        if (slotOf(owner, name) >= 0) {
             throw new Exception();
         }
-        table.put(identifier, declaration);
+        if ((count + 1) * 2 > decls.length) {
+            grow();
+        }
+        place(owner, name, declaration);
+        count++;
     }
-    public void delDeclaration(String identifier, Declaration declaration) throws Exception { //throws Identification.IdentificationError {
-        if (!table.containsKey(identifier)) {
-//            throw new Identification.IdentificationError();
+
+    public void delDeclaration(String owner, String name, Declaration declaration) throws Exception {
+        int slot = slotOf(owner, name);
+        if (slot < 0) {
             throw new Exception();
         }
-        table.remove(identifier, declaration);
+        if (decls[slot] != declaration) {
+            return; // some other declaration holds the name, leave it be
+        }
+        // backward shift deletion: pull later entries of the probe run into the hole
+        int mask = decls.length - 1;
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (decls[i] != null) {
+            int home = hash(owners[i], names[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                owners[hole] = owners[i];
+                names[hole] = names[i];
+                decls[hole] = decls[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        owners[hole] = null;
+        names[hole] = null;
+        decls[hole] = null;
+        count--;
+    }
+
+    // Takes this table's declarations back out of other, for a scope that is closing
+    public void deleteAllFrom(IDTable other) {
+        for (int i = 0; i < decls.length; i++) {
+            if (decls[i] != null) {
+                try {
+                    other.delDeclaration(owners[i], names[i], decls[i]);
+                } catch (Exception e) {
+                    // never made it into other
+                }
+            }
+        }
+    }
+
+    public Declaration findDeclaration(String owner, String name) {
+        int slot = slotOf(owner, name);
+        return slot < 0 ? null : decls[slot];
+    }
+
+    private int slotOf(String owner, String name) {
+        int mask = decls.length - 1;
+        int i = hash(owner, name) & mask;
+        while (decls[i] != null) {
+            if (same(names[i], name) && same(owners[i], owner)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void place(String owner, String name, Declaration declaration) {
+        int mask = decls.length - 1;
+        int i = hash(owner, name) & mask;
+        while (decls[i] != null) {
+            i = (i + 1) & mask;
+        }
+        owners[i] = owner;
+        names[i] = name;
+        decls[i] = declaration;
+    }
+
+    private void grow() {
+        String[] oldOwners = owners;
+        String[] oldNames = names;
+        Declaration[] oldDecls = decls;
+        owners = new String[oldDecls.length * 2];
+        names = new String[oldDecls.length * 2];
+        decls = new Declaration[oldDecls.length * 2];
+        for (int j = 0; j < oldDecls.length; j++) {
+            if (oldDecls[j] != null) {
+                place(oldOwners[j], oldNames[j], oldDecls[j]);
+            }
+        }
+    }
+
+    // Spellings come out of the NameTable, so the == check usually settles it
+    private static boolean same(String a, String b) {
+        return a == b || (a != null && a.equals(b));
     }
 
-    public Declaration findDeclaration(String identifier) {
-        return table.get(identifier);
+    private static int hash(String owner, String name) {
+        int h = (owner == null ? 0 : owner.hashCode() * 31) + name.hashCode();
+        return h ^ (h >>> 16);
     }
 }
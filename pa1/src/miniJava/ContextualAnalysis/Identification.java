@@ -3,8 +3,8 @@ package miniJava.ContextualAnalysis;
 import miniJava.ErrorReporter;
 import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.AbstractSyntaxTrees.*;
-import miniJava.SyntacticAnalyzer.Token;
-import miniJava.SyntacticAnalyzer.TokenType;
+
+import java.util.Set;
 
 public class Identification implements Visitor<Object,Object> {
     private ErrorReporter _errors;
@@ -26,55 +26,35 @@ public class Identification implements Visitor<Object,Object> {
     }
 
     public Identification(ErrorReporter errors, Package _package) {
+        this(errors, _package, new PredefinedClasses());
+    }
+
+    public Identification(ErrorReporter errors, Package _package, PredefinedClasses predefined) {
         this._errors = errors;
         si = new ScopedIdentification(_errors, _package.classDeclList);
         currentClass = _package.classDeclList.get(0);
         try {
-            addPredefinedClasses();
+            addPredefinedClasses(predefined);
         } catch (Exception e) {
             _errors.reportError("IdentificationError: \"" + e + "\" when adding predefined declarations");
         }
     }
 
-    private void addPredefinedClasses() {
-        // Make sure we are adding correct class names? Should it only be singular or keep double like rest of convention?
-        // Manually add _PrintStream, and it's method (_println)
-        MethodDeclList mdl = new MethodDeclList();
-        FieldDecl md = new FieldDecl(false, false, new BaseType(TypeKind.VOID, null),"println", null);
-        ParameterDeclList pdl = new ParameterDeclList();
-        ParameterDecl pd = new ParameterDecl(new BaseType(TypeKind.INT, null), "n", null);
-        pdl.add(pd);
-        MethodDecl printStreamMethod = new MethodDecl(md, pdl, new StatementList(), null);
-        mdl.add(printStreamMethod);
-        ClassDecl printStream = new ClassDecl("_PrintStream", new FieldDeclList(), mdl, null);
-        TypeDenoter printStreamClassType = new ClassType(new Identifier(new Token(TokenType.IDENTIFIER, "_PrintStream")), null);
-        printStream.type = printStreamClassType;
-        si.addClassDeclaration(printStream.name + printStream.name, printStream);
-        si.addDeclaration(printStream.name + "println", printStreamMethod);
-
-        // Manually add System and its field (out)
-        FieldDeclList systemFdl = new FieldDeclList();
-        FieldDecl systemField = new FieldDecl(false, true, new ClassType(new Identifier(new Token(TokenType.CLASS, "_PrintStream"), null), null), "out", null);
-        systemFdl.add(systemField);
-        ClassDecl system = new ClassDecl("System", systemFdl, new MethodDeclList(), null);
-        TypeDenoter systemClassType = new ClassType(new Identifier(new Token(TokenType.IDENTIFIER, "System")), null);
-        system.type = systemClassType;
-        si.addClassDeclaration(system.name + system.name, system);
-        si.addDeclaration(system.name + "out", systemField);
-
-
-        // Manually add String class
-        ClassDecl stringCls = new ClassDecl("String", new FieldDeclList(), new MethodDeclList(), null);
-        TypeDenoter stringClassType = new ClassType(new Identifier(new Token(TokenType.IDENTIFIER, "String")), null);
-        system.type = stringClassType;
-        si.addClassDeclaration(stringCls.name + stringCls.name, stringCls);
-//        visitIdentifier(new Identifier(new Token(TokenType.IDENTIFIER, "String")), stringCls);
-
-        // Visit all the classes real quick
-        visitClassDecl(printStream, stringCls);
-        visitClassDecl(system, system);
-        visitClassDecl(stringCls, stringCls);
+    // A second Identification over the tables of shared, after shared.declareClasses,
+    //  for identifying classes on several threads at once
+    public Identification(ErrorReporter errors, Identification shared) {
+        this._errors = errors;
+        si = new ScopedIdentification(_errors, shared.si);
+        currentClass = shared.currentClass;
+    }
 
+    // Only declared, PredefinedClasses already resolved everything inside them
+    private void addPredefinedClasses(PredefinedClasses predefined) {
+        si.addClassDeclaration(predefined.printStream);
+        si.addDeclaration(predefined.printStream.name, "println", predefined.println);
+        si.addClassDeclaration(predefined.system);
+        si.addDeclaration(predefined.system.name, "out", predefined.out);
+        si.addClassDeclaration(predefined.string);
     }
 
     public void parse( Package prog ) {
@@ -85,33 +65,77 @@ public class Identification implements Visitor<Object,Object> {
         }
     }
 
+    // Only the classes in changed are identified in full. The others only as far as other classes
+    //  see them, the types of their fields, methods and parameters, BuildCache has the rest.
+    public void parse(Package prog, Set<ClassDecl> changed) {
+        try {
+            declareClasses(prog);
+            for (ClassDecl c : prog.classDeclList) {
+                if (changed.contains(c)) {
+                    identifyClass(c);
+                } else {
+                    identifySignatures(c);
+                }
+            }
+        } catch( IdentificationError e ) {
+            _errors.reportError(e.toString());
+        }
+    }
+
     public Object visitPackage(Package prog, Object arg) throws IdentificationError {
-        ClassDeclList cl = prog.classDeclList;
+        declareClasses(prog);
+      // Starting actually visiting each class
+      for (ClassDecl c : prog.classDeclList) {
+          identifyClass(c);
+      }
+
+//        throw new IdentificationError("Not yet implemented!");
+        return null;
+    }
+
+    // Everything one class may see of the others: the classes themselves at level 0,
+    //  their public fields and methods at level 1
+    public void declareClasses(Package prog) {
         for (ClassDecl c: prog.classDeclList) {
-            si.addClassDeclaration(c.name+c.name, c); // add all classes to level 0
+            si.addClassDeclaration(c); // add all classes to level 0
         }
 //        si.openScope();
         for (ClassDecl c : prog.classDeclList) {
             // add all public fields and methods to level 1
             for (FieldDecl fd : c.fieldDeclList) {
+                fd.owner = c;
                 if (!fd.isPrivate) {
-                    si.addDeclaration(c.name + fd.name, fd);
+                    si.addDeclaration(c.name, fd.name, fd);
                 }
             }
             for (MethodDecl md : c.methodDeclList) {
+                md.owner = c;
                 if (!md.isPrivate) {
-                    si.addDeclaration(c.name + md.name, md);
+                    si.addDeclaration(c.name, md.name, md);
                 }
             }
         }
-      // Starting actually visiting each class
-      for (ClassDecl c : prog.classDeclList) {
-          currentClass = c;
-          c.visit(this, arg);
-      }
+    }
 
-//        throw new IdentificationError("Not yet implemented!");
-        return null;
+    // Needs declareClasses to have run first
+    public void identifyClass(ClassDecl c) {
+        currentClass = c;
+        c.visit(this, null);
+    }
+
+    // The types of c's fields, methods and parameters, all the other classes see of it.
+    //  Needs declareClasses to have run first
+    public void identifySignatures(ClassDecl c) {
+        currentClass = c;
+        for (FieldDecl f : c.fieldDeclList) {
+            f.type.visit(this, c);
+        }
+        for (MethodDecl m : c.methodDeclList) {
+            m.type.visit(this, c);
+            for (ParameterDecl pd : m.parameterDeclList) {
+                pd.type.visit(this, m);
+            }
+        }
     }
     ///////////////////////////////////////////////////////////////////////////////
     //
@@ -123,12 +147,12 @@ public class Identification implements Visitor<Object,Object> {
         String className = clas.name;
         for (FieldDecl f : clas.fieldDeclList) {
             if (f.isPrivate) {
-                si.addDeclaration(className + f.name, f); // add private fields
+                si.addDeclaration(className, f.name, f); // add private fields
             }
         }
         for (MethodDecl m : clas.methodDeclList) {
             if (m.isPrivate) {
-                si.addDeclaration(className + m.name, m); // add private methods
+                si.addDeclaration(className, m.name, m); // add private methods
             }
         }
         si.openScope(); // open level 2
@@ -141,28 +165,17 @@ public class Identification implements Visitor<Object,Object> {
         si.closeScope(); // close level 2
         for (FieldDecl f : clas.fieldDeclList) {
             if (f.isPrivate) {
-                String tempfName = f.name;
-                if (!tempfName.contains(className)) {
-                    tempfName = className + tempfName;
-                } else if (tempfName.contains("-")) {
-                    tempfName = tempfName.replace("-", "");
-                }
-                si.delDeclaration(tempfName, f); // rem access to private fields
+                si.delDeclaration(className, f.name, f); // rem access to private fields
             }
         }
         for (MethodDecl m : clas.methodDeclList) {
             if (m.isPrivate) {
-                String tempmName = m.name;
-                if (!tempmName.contains(className)) {
-                    tempmName = className + tempmName;
-                } else if (tempmName.contains("-")) {
-                    tempmName = tempmName.replace("-", "");
-                }
-                si.delDeclaration(tempmName, m); // rem access to private methods
+                si.delDeclaration(className, m.name, m); // rem access to private methods
             }
         }
         return null;
     }
+
     @Override
     public Object visitFieldDecl(FieldDecl f, Object arg){
         f.type.visit(this, f);
@@ -175,13 +188,7 @@ public class Identification implements Visitor<Object,Object> {
         si.openScope();
 
         for (ParameterDecl pd: pdl) {
-            if (pd.type.typeKind == TypeKind.CLASS) {
-                pd.type.visit(this, m);
-                assert pd.type instanceof ClassType;
-                si.addDeclaration(((ClassType) pd.type).className.getName() + pd.name, pd);
-            } else {
-                pd.visit(this, m);
-            }
+            pd.visit(this, m); // a local like any other, whatever its type
         }
         StatementList sl = m.statementList;
         for (Statement s: sl) {
@@ -194,13 +201,13 @@ public class Identification implements Visitor<Object,Object> {
     public Object visitParameterDecl(ParameterDecl pd, Object arg){
 //        assert arg instanceof ClassDecl;
 //        si.addDeclaration(((ClassDecl) arg).name + pd.name, pd);
-        si.addDeclaration(pd.name, pd);
+        si.addDeclaration(null, pd.name, pd);
         pd.type.visit(this, arg);
         return null;
     }
     @Override
     public Object visitVarDecl(VarDecl vd, Object arg){
-        si.addDeclaration(vd.name, vd);
+        si.addDeclaration(null, vd.name, vd);
         vd.type.visit(this, arg);
         return null;
     }
@@ -220,7 +227,7 @@ public class Identification implements Visitor<Object,Object> {
 //        ct.className.visit(this, arg);
         Declaration classDecl = si.findClassDeclaration(ct.className);
         if (classDecl == null || !(classDecl instanceof ClassDecl)) {
-            _errors.reportError("IdentifierError: ID \"" + ct.className.getName() + "\" requires type CLASS and cannot be found.");
+            _errors.reportError(ct.posn, "IdentifierError: ID \"" + ct.className.getName() + "\" requires type CLASS and cannot be found.");
         } //else {
 //            id.setDeclaration(si.findDeclaration(id));
 //        }
@@ -240,13 +247,32 @@ public class Identification implements Visitor<Object,Object> {
     ///////////////////////////////////////////////////////////////////////////////
     @Override
     public Object visitBlockStmt(BlockStmt stmt, Object arg){
-        si.openScope();
-        for (Statement s : stmt.sl) {
-            s.visit(this, arg);
-        }
-        si.closeScope();
+        walkNested(stmt, arg);
         return null;
     }
+
+    // Blocks, ifs and whiles nest as deep as the program does, they are walked on a stack of their
+    //  own. A block is a scope, the other statements and the conditions go through this visitor.
+    private void walkNested(Statement stmt, Object arg) {
+        new ASTWalker() {
+            protected boolean pre(AST node) {
+                if (node instanceof BlockStmt) {
+                    si.openScope();
+                    return true;
+                } else if (node instanceof IfStmt || node instanceof WhileStmt) {
+                    return true;
+                }
+                node.visit(Identification.this, arg);
+                return false;
+            }
+
+            protected void post(AST node) {
+                if (node instanceof BlockStmt) {
+                    si.closeScope();
+                }
+            }
+        }.walk(stmt);
+    }
     @Override
     public Object visitVardeclStmt(VarDeclStmt stmt, Object arg){
         curVarDeclStmt = stmt;
@@ -260,7 +286,7 @@ public class Identification implements Visitor<Object,Object> {
         stmt.ref.visit(this, arg);
         stmt.val.visit(this, arg);
         if(stmt.val instanceof RefExpr && ((RefExpr) stmt.val).ref instanceof IdRef && ((IdRef)((RefExpr)stmt.val).ref).id.getDeclaration() instanceof ClassDecl) {
-            _errors.reportError("IdentificationError: Class Literals cannot be assigned to assignment statements");
+            _errors.reportError(stmt.posn, "IdentificationError: Class Literals cannot be assigned to assignment statements");
         }
         return null;
     }
@@ -288,16 +314,12 @@ public class Identification implements Visitor<Object,Object> {
     }
     @Override
     public Object visitIfStmt(IfStmt stmt, Object arg){
-        stmt.cond.visit(this, arg);
-        stmt.thenStmt.visit(this, arg);
-        if (stmt.elseStmt != null)
-            stmt.elseStmt.visit(this, arg);
+        walkNested(stmt, arg);
         return null;
     }
     @Override
     public Object visitWhileStmt(WhileStmt stmt, Object arg){
-        stmt.cond.visit(this, arg);
-        stmt.body.visit(this, arg);
+        walkNested(stmt, arg);
         return null;
     }
 
@@ -315,16 +337,27 @@ public class Identification implements Visitor<Object,Object> {
     }
     @Override
     public Object visitBinaryExpr(BinaryExpr expr, Object arg){
-        expr.operator.visit(this, arg);
-        expr.left.visit(this, arg);
-        expr.right.visit(this, arg);
+        // The operators of a chain are walked on a stack of their own, a long chain would run
+        //  out of thread stack. Operands go through this visitor as usual.
+        new ASTWalker() {
+            protected boolean pre(AST node) {
+                if (node instanceof BinaryExpr) {
+                    return true;
+                }
+                node.visit(Identification.this, arg);
+                return false;
+            }
+
+            protected void post(AST node) {
+            }
+        }.walk(expr);
         return null;
     }
     @Override
     public Object visitRefExpr(RefExpr expr, Object arg){
         expr.ref.visit(this, arg);
         if (getRefDecl(expr.ref) instanceof MethodDecl || getRefDecl(expr.ref) instanceof ClassDecl && !(expr.ref instanceof ThisRef)) {
-            _errors.reportError("IdentificationError: refExpr: \"" + getRefDecl(expr.ref).name + "\" cannot be a Method or ClassDecl");
+            _errors.reportError(expr.posn, "IdentificationError: refExpr: \"" + getRefDecl(expr.ref).name + "\" cannot be a Method or ClassDecl");
         }
         return null;
     }
@@ -338,7 +371,7 @@ public class Identification implements Visitor<Object,Object> {
     public Object visitCallExpr(CallExpr expr, Object arg){
         expr.functionRef.visit(this, arg);
         if (!(getRefDecl(expr.functionRef) instanceof MethodDecl)) {
-            _errors.reportError("IdentificationError: CallExpr: \"" + getRefDecl(expr.functionRef).name + "\" must be a Method");
+            _errors.reportError(expr.posn, "IdentificationError: CallExpr: \"" + getRefDecl(expr.functionRef).name + "\" must be a Method");
         }
         ExprList al = expr.argList;
         for (Expression e: al) {
@@ -373,7 +406,7 @@ public class Identification implements Visitor<Object,Object> {
     public Object visitThisRef(ThisRef ref, Object arg) {
         ref.declaration = currentClass;
         if (arg instanceof MethodDecl && ((MethodDecl)arg).isStatic) {
-            _errors.reportError("IdentificationError: Cannot reference \"this\" within a static context");
+            _errors.reportError(ref.posn, "IdentificationError: Cannot reference \"this\" within a static context");
         }
         return currentClass;
     }
@@ -389,21 +422,28 @@ public class Identification implements Visitor<Object,Object> {
         ref.declaration = ref.id.getDeclaration();
         if (arg instanceof MethodDecl && ((MethodDecl)arg).isStatic) {
             if (ref.declaration instanceof MemberDecl && !((MemberDecl)ref.declaration).isStatic) {
-                _errors.reportError("IdentificationError: Members of static methods must also be static");
+                _errors.reportError(ref.posn, "IdentificationError: Members of static methods must also be static");
             }
         }
         return null;
     }
     @Override
     public Object visitQRef(QualRef qr, Object arg) {
-        Reference ref = qr.ref;
         qreflevel++;
+        try {
+            return resolveQRef(qr, arg);
+        } finally {
+            qreflevel--; // also after the early returns for errors, or the level leaks into later refs
+        }
+    }
+
+    private Object resolveQRef(QualRef qr, Object arg) {
+        Reference ref = qr.ref;
         ref.visit(this, arg);
 
         if (ref instanceof IdRef) {
-            ClassDecl tempClassDecl = currentClass;
             if (((IdRef)ref).id.getDeclaration() == null) {
-                _errors.reportError("IdentificationError: Base IdRef in QRef has not been declared");
+                _errors.reportError(qr.posn, "IdentificationError: Base IdRef in QRef has not been declared");
                 return null;
             }
             TypeDenoter tempType = ((IdRef)ref).id.getDeclaration().type;
@@ -411,22 +451,20 @@ public class Identification implements Visitor<Object,Object> {
                 tempType = ((ArrayType) tempType).eltType;
             }
             if (!(tempType instanceof ClassType)) {
-                _errors.reportError("IdentificationError: Only classes references can be qualified");
+                _errors.reportError(qr.posn, "IdentificationError: Only classes references can be qualified");
                 return null;
             }
-            currentClass = visitClassType((ClassType) tempType, arg);
-            ref.visit(this, arg);
-            currentClass = tempClassDecl;
+            visitClassType((ClassType) tempType, arg);
         }
         Declaration refDecl = getRefDecl(ref);
         if (refDecl == null) {
-            _errors.reportError("IdentificationError: Cannot find declaration for LHS of QRef");
+            _errors.reportError(qr.posn, "IdentificationError: Cannot find declaration for LHS of QRef");
             return null;
         }
         TypeDenoter LHSType = refDecl.type;
         if (LHSType.typeKind != TypeKind.CLASS) {
             if (!(ref instanceof ThisRef)) {
-                _errors.reportError("IdentificationError: Left hand side of QRef must be a ClassType");
+                _errors.reportError(qr.posn, "IdentificationError: Left hand side of QRef must be a ClassType");
                 return null;
             }
         }
@@ -439,7 +477,7 @@ public class Identification implements Visitor<Object,Object> {
 
             } else {
                 //check for static vs nonstatic
-                String refContext = refDecl.name.split("-")[0];
+                String refContext = refDecl.name; // a class, a local goes by the class of its type
                 if (refDecl.type instanceof ClassType) {
                     refContext = ((ClassType) refDecl.type).className.getName();
                 }
@@ -449,28 +487,28 @@ public class Identification implements Visitor<Object,Object> {
             Declaration LHSClassDecl = visitClassType((ClassType) LHSType, arg);
             idDecl = si.findlevel1Declaration(qr.id, LHSClassDecl.name);
         } else {
-            _errors.reportError("IdentificationError: Left hand side of QRef cannot be a \"" + refDecl + "\"");
+            _errors.reportError(qr.posn, "IdentificationError: Left hand side of QRef cannot be a \"" + refDecl + "\"");
             return null;
         }
 
         if (idDecl == null) {
-            _errors.reportError("IdentificationError: No declaration found for \"" + qr.id.getName() + "\" in QRef");
+            _errors.reportError(qr.posn, "IdentificationError: No declaration found for \"" + qr.id.getName() + "\" in QRef");
             return null;
         }
 
         if (!(idDecl instanceof MemberDecl)) {
-            _errors.reportError("IdentificationError: RHS of QRef must be a MemberDecl but is instead \"" + idDecl + "\"");
+            _errors.reportError(qr.posn, "IdentificationError: RHS of QRef must be a MemberDecl but is instead \"" + idDecl + "\"");
             return null;
         }
 
         // Static check if LHS is ClassDecl
         if (!(ref instanceof ThisRef) && refDecl instanceof ClassDecl && idDecl instanceof MemberDecl && !((MemberDecl) idDecl).isStatic) {
-            _errors.reportError("IdentificationError: Trying to reference non-static \"" + ((MemberDecl) idDecl).name + "\" in a static context");
+            _errors.reportError(qr.posn, "IdentificationError: Trying to reference non-static \"" + ((MemberDecl) idDecl).name + "\" in a static context");
             return null;
         }
 
         if (idDecl instanceof MethodDecl && qreflevel > 1) {
-            _errors.reportError("IdentificationError: QRef can only reference methods as the last id on the rhs");
+            _errors.reportError(qr.posn, "IdentificationError: QRef can only reference methods as the last id on the rhs");
             return null;
         }
 
@@ -527,7 +565,6 @@ public class Identification implements Visitor<Object,Object> {
 ////            qr.id.visit(this, arg);
 //            si.findlevel1Declaration(qr.id, "");
 //        }
-        qreflevel--;
         qr.declaration = qr.id.getDeclaration();
         return null;
     }
@@ -544,14 +581,14 @@ public class Identification implements Visitor<Object,Object> {
 //            _errors.reportError("IdentifierError: Cannot reference var within its own initializing statement");
 //        }
         if (curVarDeclStmt != null && id.getName().equals(curVarDeclStmt.varDecl.name)) {
-            _errors.reportError("IdentifierError: Cannot reference var within its own initializing statement");
+            _errors.reportError(id.posn, "IdentifierError: Cannot reference var within its own initializing statement");
         }
 
         Declaration decl = si.findDeclaration(id, currentClass);
         if (decl == null) {
             decl = si.findClassDeclaration(id);
             if (decl == null) {
-                _errors.reportError("IdentifierError: No declaration made for id \"" + id.getName() + "\"");
+                _errors.reportError(id.posn, "IdentifierError: No declaration made for id \"" + id.getName() + "\"");
             } // else {
           //            id.setDeclaration(si.findDeclaration(id));
           //        }
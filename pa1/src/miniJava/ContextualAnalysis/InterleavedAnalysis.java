@@ -0,0 +1,82 @@
+package miniJava.ContextualAnalysis;
+
+import java.util.stream.IntStream;
+
+import miniJava.ErrorReporter;
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+// Identification and type checking interleaved class by class: each class is type checked right
+//  after its identifiers were resolved, while its nodes are still in cache, instead of in a second
+//  walk over the whole program. Both are still their own visitors walking the whole class, only
+//  the order they visit the classes in changes. Reports exactly what the two separate passes
+//  would: type errors are held back and only handed over if identification found nothing wrong.
+public class InterleavedAnalysis {
+  private ErrorReporter _errors;
+  private ErrorReporter _typeErrors;
+  private TypeFactory _types;
+  private PredefinedClasses _predefined;
+  private boolean _parallel;
+
+  public InterleavedAnalysis(ErrorReporter errors) {
+    this(errors, new TypeFactory(), new PredefinedClasses(), false);
+  }
+
+  // parallel analyses the classes on the common fork-join pool
+  public InterleavedAnalysis(ErrorReporter errors, TypeFactory types, PredefinedClasses predefined, boolean parallel) {
+    this._errors = errors;
+    this._typeErrors = new ErrorReporter();
+    this._types = types;
+    this._predefined = predefined;
+    this._parallel = parallel;
+  }
+
+  // Identification errors go straight to the reporter, type errors wait for reportTypeErrors
+  public void parse(Package prog) {
+    Identification identification = new Identification(_errors, prog, _predefined);
+    identification.declareClasses(prog);
+    if (_parallel) {
+      parseParallel(prog, identification);
+      return;
+    }
+    TypeChecking typeChecker = new TypeChecking(_typeErrors, _types);
+    for (ClassDecl c : prog.classDeclList) {
+      identification.identifyClass(c);
+      if (!_errors.hasErrors()) { // type checking would never run after an identification error
+        typeChecker.checkClass(c);
+      }
+    }
+  }
+
+  // Past declareClasses the classes only read each other's declarations, so each one gets its
+  //  own Identification over the shared tables and its own reporters. The reporters are merged
+  //  in class order afterwards, the output doesn't depend on how the work was scheduled.
+  private void parseParallel(Package prog, Identification shared) {
+    int count = prog.classDeclList.size();
+    ErrorReporter[] identificationErrors = new ErrorReporter[count];
+    ErrorReporter[] typeErrors = new ErrorReporter[count];
+    boolean declared = !_errors.hasErrors();
+    IntStream.range(0, count).parallel().forEach(i -> {
+      ClassDecl c = prog.classDeclList.get(i);
+      identificationErrors[i] = new ErrorReporter();
+      new Identification(identificationErrors[i], shared).identifyClass(c);
+      typeErrors[i] = new ErrorReporter();
+      if (declared && !identificationErrors[i].hasErrors()) {
+        new TypeChecking(typeErrors[i], _types).checkClass(c);
+      }
+    });
+    for (int i = 0; i < count; i++) {
+      _errors.merge(identificationErrors[i], "");
+    }
+    if (!_errors.hasErrors()) {
+      for (int i = 0; i < count; i++) {
+        _typeErrors.merge(typeErrors[i], "");
+      }
+    }
+  }
+
+  // Where the separate passes would run TypeChecking
+  public void reportTypeErrors() {
+    _errors.merge(_typeErrors, "");
+  }
+}
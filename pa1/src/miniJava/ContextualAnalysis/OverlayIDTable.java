@@ -0,0 +1,36 @@
+package miniJava.ContextualAnalysis;
+
+import miniJava.AbstractSyntaxTrees.*;
+
+// A table layered over a base it never writes to: additions land here, lookups fall through to
+//  the base. Deleting something that only the base has is quietly ignored, the same as deleting
+//  a name another declaration holds.
+class OverlayIDTable extends IDTable {
+    private final IDTable base;
+
+    OverlayIDTable(IDTable base) {
+        this.base = base;
+    }
+
+    @Override
+    public void addDeclaration(String owner, String name, Declaration declaration) throws Exception {
+        if (base.findDeclaration(owner, name) != null) {
+            throw new Exception();
+        }
+        super.addDeclaration(owner, name, declaration);
+    }
+
+    @Override
+    public void delDeclaration(String owner, String name, Declaration declaration) throws Exception {
+        if (super.findDeclaration(owner, name) == null && base.findDeclaration(owner, name) != null) {
+            return;
+        }
+        super.delDeclaration(owner, name, declaration);
+    }
+
+    @Override
+    public Declaration findDeclaration(String owner, String name) {
+        Declaration declaration = super.findDeclaration(owner, name);
+        return declaration != null ? declaration : base.findDeclaration(owner, name);
+    }
+}
@@ -0,0 +1,49 @@
+package miniJava.ContextualAnalysis;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// _PrintStream with its println(int), System with its static out, and String: the classes every
+//  program can use without declaring them. The one class type among their members is resolved
+//  right here, after that no pass writes to them, so a daemon builds them once and hands the
+//  same declarations to every compilation.
+public class PredefinedClasses {
+    final ClassDecl printStream;
+    final MethodDecl println;
+    final ClassDecl system;
+    final FieldDecl out;
+    final ClassDecl string;
+
+    public PredefinedClasses() {
+        ParameterDeclList pdl = new ParameterDeclList();
+        pdl.add(new ParameterDecl(new BaseType(TypeKind.INT, null), "n", null));
+        println = new MethodDecl(new FieldDecl(false, false, new BaseType(TypeKind.VOID, null), "println", null),
+                pdl, new StatementList(), null);
+        MethodDeclList mdl = new MethodDeclList();
+        mdl.add(println);
+        printStream = new ClassDecl("_PrintStream", new FieldDeclList(), mdl, null);
+        printStream.type = classType(printStream);
+        println.owner = printStream;
+
+        out = new FieldDecl(false, true, classType(printStream), "out", null);
+        FieldDeclList systemFdl = new FieldDeclList();
+        systemFdl.add(out);
+        system = new ClassDecl("System", systemFdl, new MethodDeclList(), null);
+        system.type = classType(system);
+        out.owner = system;
+
+        string = new ClassDecl("String", new FieldDeclList(), new MethodDeclList(), null);
+        string.type = classType(string);
+    }
+
+    public ClassDecl[] classes() {
+        return new ClassDecl[] { printStream, system, string };
+    }
+
+    private static ClassType classType(ClassDecl cd) {
+        Identifier cn = new Identifier(new Token(TokenType.IDENTIFIER, cd.name));
+        cn.setDeclaration(cd);
+        return new ClassType(cn, null);
+    }
+}
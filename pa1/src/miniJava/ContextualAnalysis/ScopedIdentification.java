@@ -1,6 +1,5 @@
 package miniJava.ContextualAnalysis;
 
-import java.lang.reflect.Type;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import miniJava.AbstractSyntaxTrees.*;
@@ -11,14 +10,35 @@ public class ScopedIdentification {
     private int level;
     private ErrorReporter _errors;
     private ClassDeclList classList;
+    private IDTable classes; // level 0
+    private IDTable members; // level 1
+    private IDTable locals; // everything declared at level 2 and up that is still in scope
 
     public ScopedIdentification(ErrorReporter errors, ClassDeclList classList) {
         this._errors = errors;
         this.classList = classList;
         this.stack = new ArrayDeque<>();
-        this.stack.push(new IDTable()); // Level 0
+        this.classes = new IDTable(classList.size() + 3); // room for the predefined classes too
+        this.members = new IDTable();
+        this.locals = new IDTable();
+        this.stack.push(classes); // Level 0
         this.level = 1; // Might not actually need this
-        this.stack.push(new IDTable()); // Level 1
+        this.stack.push(members); // Level 1
+    }
+
+    // For one of several classes identified at once: reads the level 0 and level 1 tables of
+    //  shared, which must be complete, but puts this class's private members in a level 1
+    //  overlay of its own, so nothing shared is ever written
+    public ScopedIdentification(ErrorReporter errors, ScopedIdentification shared) {
+        this._errors = errors;
+        this.classList = shared.classList;
+        this.stack = new ArrayDeque<>();
+        this.classes = shared.classes;
+        this.members = new OverlayIDTable(shared.members);
+        this.locals = new IDTable();
+        this.stack.push(classes); // Level 0
+        this.level = 1;
+        this.stack.push(members); // Level 1
     }
 
     public void openScope() {
@@ -27,80 +47,69 @@ public class ScopedIdentification {
     }
 
     public void closeScope() {
-        stack.pop();
+        IDTable scope = stack.pop();
+        if (level >= 2) {
+            scope.deleteAllFrom(locals);
+        }
         level--;
     }
 
-    public void addDeclaration(String identifier, Declaration declaration) {
+    // owner is the class for members, null for locals
+    public void addDeclaration(String owner, String name, Declaration declaration) {
+        // A local may not reuse a name from its own or any enclosing local scope (levels 2 and up)
+        if (level >= 2 && locals.findDeclaration(owner, name) != null) {
+            reportDuplicate(owner, name, declaration, levelOf(owner, name));
+            return;
+        }
         try {
-            stack.peek().addDeclaration(identifier, declaration);
-            check2PlusLevel(identifier);
+            stack.peek().addDeclaration(owner, name, declaration);
+            if (level >= 2) {
+                locals.addDeclaration(owner, name, declaration);
+            }
         } catch (Exception e) { // TODO: Change Exception to IdentificationError
-            _errors.reportError("IdentificationError: Identifier \"" + identifier + "\" already exists at level: " + level);
+            reportDuplicate(owner, name, declaration, level);
         }
     }
 
-    private void check2PlusLevel(String identifier) throws Exception{
-        if (level >= 2) {
-            Deque<IDTable> temp = new ArrayDeque<>();
-            temp.push(stack.pop());
-            level--;
-            while (level > 1) {
-                level--;
-                if (stack.peek().findDeclaration(identifier) != null) {
-                    level ++;
-                    throw new Exception();
-                }
-                temp.push(stack.pop());
-            }
-            for (IDTable idt : temp) {
-                stack.push(temp.pop());
-                level++;
+    private void reportDuplicate(String owner, String name, Declaration declaration, int existingLevel) {
+        _errors.reportError(declaration.posn, "IdentificationError: Identifier \"" + spelling(owner, name) + "\" already exists at level: " + existingLevel);
+    }
+
+    // Only asked once a clash is already known, so walking the scopes is fine here
+    private int levelOf(String owner, String name) {
+        int l = level;
+        for (IDTable scope : stack) {
+            if (scope.findDeclaration(owner, name) != null) {
+                return l;
             }
+            l--;
         }
+        return level;
     }
-    public void addClassDeclaration(String identifier, Declaration declaration) {
+
+    public void addClassDeclaration(ClassDecl declaration) {
 //        declaration.type = new ClassType(identifier, null); // to add a typeDenoter to strings because there are none
         try {
-            stack.peekLast().addDeclaration(identifier, declaration);
+            classes.addDeclaration(declaration.name, declaration.name, declaration);
         } catch (Exception e) {
-            _errors.reportError("IdentificationError: Identifier already exists at level: " + level);
+            _errors.reportError(declaration.posn, "IdentificationError: Identifier already exists at level: " + level);
         }
     }
     public Declaration findClassDeclaration(Identifier identifier) {
-        Declaration declaration = stack.peekLast().findDeclaration(identifier.getName()+identifier.getName());
+        Declaration declaration = classes.findDeclaration(identifier.getName(), identifier.getName());
         if (declaration != null) {
             identifier.setDeclaration(declaration);
             return declaration;
         }
         return null;
     }
+    // A member of className, one probe: the predefined members are keyed by their classes too
     public Declaration findlevel1Declaration(Identifier identifier, String className) {
-        ArrayDeque<IDTable> tempStack = new ArrayDeque<>(stack);
-        tempStack.pollLast();
-
-        Declaration declaration = tempStack.peekLast().findDeclaration(className + identifier.getName());
-
+        Declaration declaration = members.findDeclaration(className, identifier.getName());
         if (declaration != null) {
-            declaration.name = className + "-" + identifier.getName();
             identifier.setDeclaration(declaration);
-            return declaration;
-        } else {
-            declaration = tempStack.peekLast().findDeclaration("System" + identifier.getName());
-             if (declaration != null) {
-                 declaration.name = "System-"+identifier.getName();
-                identifier.setDeclaration(declaration);
-                return declaration;
-             }  else {
-                 declaration = tempStack.peekLast().findDeclaration("_PrintStream" + identifier.getName());
-                 if (declaration != null) {
-                     declaration.name = "_PrintStream-"+identifier.getName();
-                     identifier.setDeclaration(declaration);
-                     return declaration;
-                 }
-             }
         }
-        return null;
+        return declaration;
     }
 
 //    public Declaration findDeclaration(Identifier identifier, ClassDecl clas) {
@@ -135,69 +144,33 @@ public class ScopedIdentification {
 //        return null;
 //    }
 
+    // A local in scope, else a member of clas. Classes are only tried first below level 2,
+    //  after that the caller falls back to findClassDeclaration.
     public Declaration findDeclaration(Identifier identifier, ClassDecl clas) {
-        Declaration declaration;
-        declaration = findClassDeclaration(identifier);
-
-        //first check if identifier is a class
-        if (declaration != null && level < 2) {
-            identifier.setDeclaration(declaration);
-            return declaration;
+        String name = identifier.getName();
+        Declaration declaration = level < 2 ? classes.findDeclaration(name, name) : null;
+        if (declaration == null) {
+            declaration = locals.findDeclaration(null, name);
         }
-        for (IDTable idTable : stack) {
-            declaration = idTable.findDeclaration(identifier.getName());
-            if (declaration != null) {
-                declaration.name = clas.name + "-" + identifier.getName();
-                identifier.setDeclaration(declaration);
-                return declaration;
-            }
-            declaration = idTable.findDeclaration(clas.name + identifier.getName());
-            if (declaration != null) {
-                declaration.name = clas.name + "-" + identifier.getName();
-                identifier.setDeclaration(declaration);
-                return declaration;
-            } else if (identifier.getName().equals("String")) {
-                declaration = idTable.findDeclaration("StringString");
-                if (declaration != null) {
-                    identifier.setDeclaration(declaration);
-                    return declaration;
-                }
-            } else if (identifier.getName().equals("System")) {
-                declaration = idTable.findDeclaration("SystemSystem");
-                if (declaration != null) {
-                    identifier.setDeclaration(declaration);
-                    return declaration;
-                }
-            } else if (identifier.getName().equals("_PrintSteam_PrintStream")) {
-                declaration = idTable.findDeclaration("_PrintStream_PrintStream");
-                if (declaration != null) {
-                    identifier.setDeclaration(declaration);
-                    return declaration;
-                }
-            } else {
-                declaration = idTable.findDeclaration(clas.name + "-" + identifier.getName());
-                if(declaration != null) {
-                    return declaration;
-                }
-            }
+        if (declaration == null) {
+            declaration = members.findDeclaration(clas.name, name);
         }
-        declaration = findlevel1Declaration(identifier, clas.name);
-
-//        declaration = findClassDeclaration(identifier);
-//
-//        //first check if identifier is a class
-//        if (declaration != null && level < 2) {
-//            identifier.setDeclaration(declaration);
-//            return declaration;
-//        }
-        return null;
+        if (declaration != null) {
+            identifier.setDeclaration(declaration);
+        }
+        return declaration;
     }
 
-    public void delDeclaration(String identifier, Declaration declaration) {
+    public void delDeclaration(String owner, String name, Declaration declaration) {
         try {
-            stack.peek().delDeclaration(identifier, declaration);
+            stack.peek().delDeclaration(owner, name, declaration);
         } catch (Exception e) {
-            _errors.reportError("IdentificationError: Identifier \"" + identifier + "\" doesn't exist at level: " + level);
+            _errors.reportError(declaration.posn, "IdentificationError: Identifier \"" + spelling(owner, name) + "\" doesn't exist at level: " + level);
         }
     }
+
+    // How the pair reads in error messages
+    private static String spelling(String owner, String name) {
+        return owner == null ? name : owner + "." + name;
+    }
 }
@@ -5,13 +5,22 @@ import miniJava.AbstractSyntaxTrees.*;
 import miniJava.AbstractSyntaxTrees.Package;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TypeChecking implements Visitor<Object, TypeDenoter> {
   private ErrorReporter _errors;
   private ClassDecl currentClass;
+  // Results are the shared base types, not a new type per expression
+  private TypeFactory _types;
 
   public TypeChecking(ErrorReporter errors) {
+    this(errors, new TypeFactory());
+  }
+
+  public TypeChecking(ErrorReporter errors, TypeFactory types) {
     this._errors = errors;
+    this._types = types;
   }
 
   public void parse(Package prog) {
@@ -19,18 +28,22 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
   }
 
   private void reportTypeError(AST ast, String errMsg) {
-    _errors.reportError(
-            ast.posn == null ? "*** " + errMsg : "*** " + ast.posn.toString() + ": " + errMsg);
+    _errors.reportError(ast.posn, errMsg);
   }
 
   public TypeDenoter visitPackage(Package prog, Object o){
     for (ClassDecl c: prog.classDeclList){
-      currentClass = c;
-      c.visit(this, c);
+      checkClass(c);
     }
     return null;
   }
 
+  // One class on its own, its identifiers must already be resolved
+  public void checkClass(ClassDecl c) {
+    currentClass = c;
+    c.visit(this, c);
+  }
+
 
   ///////////////////////////////////////////////////////////////////////////////
   //
@@ -64,9 +77,9 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
       if (s instanceof ReturnStmt) {
         TypeDenoter returnTD = s.visit(this, o);
         if (methodTypeTD.typeKind == TypeKind.VOID) {
-          _errors.reportError("TypeChecking Error: Return type of \"" + returnTD.typeKind + "\" for void method");
+          reportTypeError(s, "TypeChecking Error: Return type of \"" + returnTD.typeKind + "\" for void method");
         } else if (returnTD.typeKind != methodTypeTD.typeKind) {
-          _errors.reportError("TypeChecking Error: Method requires return type \"" + methodTypeTD.typeKind + "\" but got \"" + returnTD.typeKind + "\"");
+          reportTypeError(s, "TypeChecking Error: Method requires return type \"" + methodTypeTD.typeKind + "\" but got \"" + returnTD.typeKind + "\"");
         }
       } else {
         s.visit(this, o);
@@ -79,7 +92,7 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
     if (pd.type.typeKind == TypeKind.VOID) {
 //      if (pd.type.typeKind == TypeKind.VOID || pd.type.typeKind == TypeKind.CLASS) {
       //TODO: Make a better error sign
-      _errors.reportError("TypeChecking Error: visitParameterDecl");
+      reportTypeError(pd, "TypeChecking Error: visitParameterDecl");
     }
     return pd.type.visit(this, o);
   }
@@ -95,18 +108,20 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
   //
   ///////////////////////////////////////////////////////////////////////////////
 
+  // Types come back shared, so the checks below can compare them by reference
+
   public TypeDenoter visitBaseType(BaseType type, Object o){
-    return type;
+    return _types.base(type.typeKind);
   }
 
   public TypeDenoter visitClassType(ClassType ct, Object o){
     ct.className.visit(this, o); // TODO: Don't need this line??
-    return ct;
+    return _types.shared(ct);
   }
 
   public TypeDenoter visitArrayType(ArrayType type, Object o){
     type.eltType.visit(this, o); // TODO: Check if don't need this line??
-    return type;
+    return _types.shared(type);
   }
 
   // TODO: visit error and unsupported and void type??
@@ -119,16 +134,50 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
   ///////////////////////////////////////////////////////////////////////////////
 
   public TypeDenoter visitBlockStmt(BlockStmt stmt, Object o){
-    for (Statement s: stmt.sl) {
-      s.visit(this, o);
-    }
+    checkNested(stmt, o);
     return null;
   }
 
+  // Blocks, ifs and whiles nest as deep as the program does, they are walked on a stack of their
+  //  own. The type of each condition waits on conds until the branch it guards is checked, so
+  //  errors come out in the same order as checking them by recursion.
+  private void checkNested(Statement stmt, Object o) {
+    List<TypeDenoter> conds = new ArrayList<TypeDenoter>();
+    new ASTWalker() {
+      protected boolean pre(AST node) {
+        if (node instanceof BlockStmt || node instanceof IfStmt || node instanceof WhileStmt) {
+          return true;
+        }
+        TypeDenoter td = node.visit(TypeChecking.this, o);
+        if (node instanceof Expression) { // only ever the condition of an if or while
+          conds.add(td);
+        }
+        return false;
+      }
+
+      protected void after(AST node, int child) {
+        if (node instanceof IfStmt && child == 1) {
+          checkIf((IfStmt) node, conds.remove(conds.size() - 1));
+        } else if (node instanceof WhileStmt && child == 0) {
+          checkWhileCond((WhileStmt) node, conds.remove(conds.size() - 1));
+        }
+      }
+
+      protected void post(AST node) {
+        if (node instanceof WhileStmt) {
+          checkWhileBody((WhileStmt) node);
+        }
+      }
+    }.walk(stmt);
+  }
+
   public TypeDenoter visitVardeclStmt(VarDeclStmt stmt, Object o){
     TypeDenoter varTD = stmt.varDecl.visit(this, o);
     if (stmt.initExp != null) {
       TypeDenoter exprTD = stmt.initExp.visit(this, o);
+      if (exprTD == varTD) { // the same shared type, nothing to compare
+        return null;
+      }
       // TODO:
       // if (varTD == exprTD == ARRAYTYPE) { Check to make sure both elttypes match }
       // if (varTD == ARRAYTYPE) { Check exprTD matches varTD.elttype }
@@ -146,10 +195,10 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
 ////          _errors.reportError("TypeChecking Error: Attempting to assign \"" + (exprTD.typeKind + "\" type to Array of type \"" + ((ArrayType) varTD).eltType.typeKind + "\" type var"));
 //          return null;
 //        }
-        _errors.reportError("TypeChecking Error: Attempting to assign \"" + exprTD.typeKind + "\" to \"" + varTD.typeKind + "\" var");
+        reportTypeError(stmt, "TypeChecking Error: Attempting to assign \"" + exprTD.typeKind + "\" to \"" + varTD.typeKind + "\" var");
       } else {
-        if (varTD.typeKind == TypeKind.CLASS && !((ClassType) varTD).className.getName().equals(((ClassType) exprTD).className.getName())) { // if assigning class to class compare the names of classes
-          _errors.reportError("TypeChecking Error: Attempting to assign \""+ ((ClassType) exprTD).className.getName() + "\" type to \"" + ((ClassType) varTD).className.getName() + "\" type var");
+        if (varTD.typeKind == TypeKind.CLASS && !TypeFactory.sameType(varTD, exprTD)) { // if assigning class to class compare the names of classes
+          reportTypeError(stmt, "TypeChecking Error: Attempting to assign \""+ ((ClassType) exprTD).className.getName() + "\" type to \"" + ((ClassType) varTD).className.getName() + "\" type var");
         }
       }
     }
@@ -166,10 +215,10 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
       valTD = ((ArrayType) valTD).eltType;
     }
     if (refTD.typeKind != valTD.typeKind) {
-      _errors.reportError("TypeChecking Error: Attempting to assign \"" + valTD.typeKind + "\" to reference of type \"" + refTD.typeKind + "\"");
+      reportTypeError(stmt, "TypeChecking Error: Attempting to assign \"" + valTD.typeKind + "\" to reference of type \"" + refTD.typeKind + "\"");
     } else if (stmt.val instanceof RefExpr) {
       if (((RefExpr) stmt.val).ref instanceof IdRef && ((IdRef) ((RefExpr) stmt.val).ref).id.getDeclaration() instanceof MethodDecl) {
-        _errors.reportError("TypeChecking Error: ID should denote a field or a variable");
+        reportTypeError(stmt, "TypeChecking Error: ID should denote a field or a variable");
       }
     }
     return refTD;
@@ -180,11 +229,11 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
     TypeDenoter ixTD = stmt.ix.visit(this, o);
     TypeDenoter exprTD = stmt.exp.visit(this, o);
     if (refTD.typeKind != TypeKind.ARRAY) {
-      _errors.reportError("TypeChecking Error: Indexed Assignment should be Array type but is instead \"" + exprTD.typeKind + "\"");
+      reportTypeError(stmt, "TypeChecking Error: Indexed Assignment should be Array type but is instead \"" + exprTD.typeKind + "\"");
     }
     if (ixTD.typeKind != TypeKind.INT) {
       // TODO: Report error
-      _errors.reportError("TypeChecking Error: visitIxAssignStmt");
+      reportTypeError(stmt, "TypeChecking Error: visitIxAssignStmt");
 
     }
     assert refTD instanceof ArrayType;
@@ -193,13 +242,13 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
     }
     if (((ArrayType) refTD).eltType.typeKind != exprTD.typeKind) {
       //TODO: Report error
-      _errors.reportError("TypeChecking Error: visitIxAssignStmt");
+      reportTypeError(stmt, "TypeChecking Error: visitIxAssignStmt");
     }
     return refTD;
   }
   public TypeDenoter visitCallStmt(CallStmt stmt, Object o){
     if (stmt.methodRef instanceof ThisRef) {
-      _errors.reportError("\"thisRef\" cannot be a method reference");
+      reportTypeError(stmt, "\"thisRef\" cannot be a method reference");
     }
     TypeDenoter td = stmt.methodRef.visit(this, o);
 
@@ -212,13 +261,13 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
       ParameterDeclList paramDeclList = md.parameterDeclList;
 
       if (paramDeclList.size() != stmt.argList.size()) {
-        _errors.reportError("TypeChecking Error: visitCallStmt");
+        reportTypeError(stmt, "TypeChecking Error: visitCallStmt");
       }
       int i = 0;
       for (Expression e: stmt.argList) {
         TypeDenoter argTD = e.visit(this, o);
         if (argTD.typeKind != paramDeclList.get(i).type.typeKind) {
-          _errors.reportError("TypeChecking Error: visitCallStmt");
+          reportTypeError(stmt, "TypeChecking Error: visitCallStmt");
         }
         i++;
       }
@@ -234,31 +283,37 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
   }
 
   public TypeDenoter visitIfStmt(IfStmt stmt, Object o){
-    TypeDenoter ifCondTD = stmt.cond.visit(this, o);
-    stmt.thenStmt.visit(this, o);
+    checkNested(stmt, o);
+    return null;
+  }
+
+  // Once the then branch is checked, before the else branch
+  private void checkIf(IfStmt stmt, TypeDenoter ifCondTD) {
     if (ifCondTD == null || ifCondTD.typeKind != TypeKind.BOOLEAN) {
       //TODO: Change error to reflect actual error better
-      _errors.reportError("TypeChecking Error: visistIfStmt");
+      reportTypeError(stmt, "TypeChecking Error: visistIfStmt");
     }
     if (stmt.thenStmt instanceof VarDeclStmt || stmt.elseStmt instanceof VarDeclStmt) {
-      _errors.reportError("TypeChecking Error: Solitary Var decl statement not permitted in if else statement");
+      reportTypeError(stmt, "TypeChecking Error: Solitary Var decl statement not permitted in if else statement");
     }
-    if (stmt.elseStmt != null)
-      stmt.elseStmt.visit(this, o);
-    return null;
   }
 
   public TypeDenoter visitWhileStmt(WhileStmt stmt, Object o){
-    TypeDenoter condTD = stmt.cond.visit(this, o);
+    checkNested(stmt, o);
+    return null;
+  }
+
+  private void checkWhileCond(WhileStmt stmt, TypeDenoter condTD) {
     if (condTD == null || condTD.typeKind != TypeKind.BOOLEAN) {
       //TODO: Change error to reflect actual error better
-      _errors.reportError("TypeChecking Error: visistWhileStmt");
+      reportTypeError(stmt, "TypeChecking Error: visistWhileStmt");
     }
-    stmt.body.visit(this, o);
+  }
+
+  private void checkWhileBody(WhileStmt stmt) {
     if (stmt.body instanceof VarDeclStmt) {
-      _errors.reportError("TypeChecking Error: Solitary Var decl statement not permitted in while statement");
+      reportTypeError(stmt, "TypeChecking Error: Solitary Var decl statement not permitted in while statement");
     }
-    return null;
   }
 
 
@@ -283,15 +338,37 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
 //    } else if (tdExpr.typeKind == TypeKind.NULLLITERAL) { // Done need null?
 //      return tdExpr;
     } else {
-      _errors.reportError("TypeChecking Error: Can't compute \"" + expr.operator.spelling + tdExpr.typeKind + "\"");
-      return new BaseType(TypeKind.ERROR, null);
+      reportTypeError(expr, "TypeChecking Error: Can't compute \"" + expr.operator.spelling + tdExpr.typeKind + "\"");
+      return _types.base(TypeKind.ERROR);
     }
   }
 
+  // A chain of operators is walked on a stack of its own, a long one would run out of thread
+  //  stack. Operand types are stacked up as they come and combined after both sides are done.
   public TypeDenoter visitBinaryExpr(BinaryExpr expr, Object o){
-    expr.operator.visit(this, o);
-    TypeDenoter tdLeft = expr.left.visit(this, o);
-    TypeDenoter tdRight = expr.right.visit(this, o);
+    List<TypeDenoter> operands = new ArrayList<TypeDenoter>();
+    new ASTWalker() {
+      protected boolean pre(AST node) {
+        if (node instanceof BinaryExpr) {
+          return true;
+        }
+        TypeDenoter td = node.visit(TypeChecking.this, o);
+        if (!(node instanceof Operator)) {
+          operands.add(td);
+        }
+        return false;
+      }
+
+      protected void post(AST node) {
+        TypeDenoter tdRight = operands.remove(operands.size() - 1);
+        TypeDenoter tdLeft = operands.remove(operands.size() - 1);
+        operands.add(binaryType((BinaryExpr) node, tdLeft, tdRight));
+      }
+    }.walk(expr);
+    return operands.get(0);
+  }
+
+  private TypeDenoter binaryType(BinaryExpr expr, TypeDenoter tdLeft, TypeDenoter tdRight) {
     String operator = expr.operator.spelling;
     if (tdLeft.typeKind == TypeKind.ARRAY) {
         tdLeft = ((ArrayType) tdLeft).eltType;
@@ -301,7 +378,7 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
     }
     if (tdLeft.typeKind == TypeKind.ERROR || tdRight.typeKind == TypeKind.ERROR) {
       // MARK: Don't need to report an error tho because it is already reported??
-      return new BaseType(TypeKind.ERROR, null);
+      return _types.base(TypeKind.ERROR);
 //    } else if (tdLeft.typeKind == TypeKind.ARRAY && ((ArrayType) tdLeft).eltType.typeKind != tdRight.typeKind) {
 //      _errors.reportError("TypeChecking Error: Can't compute \"" + ((ArrayType) tdLeft).eltType.typeKind + operator + tdRight.typeKind + "\"");
 //      return new BaseType(TypeKind.ERROR, null);
@@ -310,29 +387,29 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
 //      return new BaseType(TypeKind.ERROR, null);
     } else if (tdLeft.typeKind == TypeKind.BOOLEAN && tdRight.typeKind == TypeKind.BOOLEAN
             && (operator.equals("&&") || operator.equals("||") || operator.equals("==") || operator.equals("!="))) {
-      return new BaseType(TypeKind.BOOLEAN, null);
+      return _types.base(TypeKind.BOOLEAN);
 
     } else if (tdLeft.typeKind == TypeKind.INT && tdRight.typeKind == TypeKind.INT) {
       if (operator.equals(">") || operator.equals(">=") || operator.equals("<") || operator.equals("<=")|| operator.equals("==") || operator.equals("!=")) {
-        return new BaseType(TypeKind.BOOLEAN, null);
+        return _types.base(TypeKind.BOOLEAN);
 
       } else if (operator.equals("+") || operator.equals("-") || operator.equals("*") || operator.equals("/")) {
-        return new BaseType(TypeKind.INT, null);
+        return _types.base(TypeKind.INT);
 
       } else {
-        return new BaseType(TypeKind.ERROR, null);
+        return _types.base(TypeKind.ERROR);
       }
     } else if (tdLeft.typeKind == TypeKind.CLASS && tdRight.typeKind == TypeKind.CLASS
             && (operator.equals("==") || operator.equals("!="))) {
       assert tdLeft instanceof ClassType;
       assert tdRight instanceof ClassType;
-      if (!((ClassType) tdLeft).className.getName().equals(((ClassType) tdRight).className.getName())) {
-        _errors.reportError("Can't compare two classes of type \"" + ((ClassType) tdLeft).className.getName() + "\" and \"" + ((ClassType) tdRight).className.getName() + "\"");
+      if (!TypeFactory.sameType(tdLeft, tdRight)) {
+        reportTypeError(expr, "Can't compare two classes of type \"" + ((ClassType) tdLeft).className.getName() + "\" and \"" + ((ClassType) tdRight).className.getName() + "\"");
       }
-      return new BaseType(TypeKind.BOOLEAN, null);
+      return _types.base(TypeKind.BOOLEAN);
     } else {
-      _errors.reportError("TypeChecking Error: Can't compute \"" + tdLeft.typeKind + operator + tdRight.typeKind + "\"");
-      return new BaseType(TypeKind.ERROR, null);
+      reportTypeError(expr, "TypeChecking Error: Can't compute \"" + tdLeft.typeKind + operator + tdRight.typeKind + "\"");
+      return _types.base(TypeKind.ERROR);
     }
   }
 
@@ -345,11 +422,11 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
     //TODO: Change errors to reflect actual errors better
     TypeDenoter refTD = ie.ref.visit(this, o);
     if (refTD.typeKind != TypeKind.ARRAY) {
-      _errors.reportError("TypeChecking Error: Left hand side of expr needs to be of type ARRAY but is \"" + refTD.typeKind + "\"");
+      reportTypeError(ie, "TypeChecking Error: Left hand side of expr needs to be of type ARRAY but is \"" + refTD.typeKind + "\"");
     }
     TypeDenoter ixTD = ie.ixExpr.visit(this, o);
     if (ixTD.typeKind != TypeKind.INT) {
-      _errors.reportError("TypeChecking Error: index needs to be of type int but is + \"" + ixTD.typeKind + "\"");
+      reportTypeError(ie, "TypeChecking Error: index needs to be of type int but is + \"" + ixTD.typeKind + "\"");
     }
     return refTD;
   }
@@ -363,13 +440,13 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
       ParameterDeclList paramDeclList = md.parameterDeclList;
 
       if (paramDeclList.size() != exprList.size()) {
-        _errors.reportError("TypeChecking Error: visitCallExpr");
+        reportTypeError(expr, "TypeChecking Error: visitCallExpr");
       }
       int i = 0;
       for (Expression e: exprList) {
         TypeDenoter argTD = e.visit(this, o);
         if (argTD.typeKind != paramDeclList.get(i).type.typeKind) {
-          _errors.reportError("TypeChecking Error: visitCallExpr");
+          reportTypeError(expr, "TypeChecking Error: visitCallExpr");
         }
         i++;
       }
@@ -405,7 +482,7 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
     // TODO: THIS SUCKS
 //    assert o instanceof ClassDecl;
 //    return (TypeDenoter) o;
-    return ((ClassDecl)o).type;
+    return _types.classOf((ClassDecl)o);
   }
 
   public TypeDenoter visitIdRef(IdRef ref, Object o) {
@@ -440,6 +517,20 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
 //      }
 //    return idTD;
 //  }
+
+  // The class whose members a reference to d can name: d itself, or the class of its type
+  private static String classOf(Declaration d) {
+    if (!(d instanceof ClassDecl) && d.type instanceof ClassType) {
+      return ((ClassType) d.type).className.getName();
+    }
+    return d.name;
+  }
+
+  // The class a member was declared in
+  private static String ownerOf(Declaration d) {
+    return d instanceof MemberDecl && ((MemberDecl) d).owner != null ? ((MemberDecl) d).owner.name : d.name;
+  }
+
   public TypeDenoter visitQRef(QualRef qr, Object o) {
     TypeDenoter refTD = qr.ref.visit(this, o);
     TypeDenoter idTD = qr.id.visit(this, o);
@@ -449,14 +540,14 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
 //    }
 
 
-    String refContext = qr.ref.declaration.name.split("-")[0];
-    String idContext = qr.id.getDeclaration().name.split("-")[0];
+    String refContext = classOf(qr.ref.declaration);
+    String idContext = ownerOf(qr.id.getDeclaration());
     if (qr.ref instanceof QualRef) {
       refContext = ((ClassType)((QualRef)qr.ref).id.getDeclaration().type).className.getName();
     }
     if (!refContext.equals(idContext)) {
-      _errors.reportError("TypeChecking Error: visitQRef2");
-      return new BaseType(TypeKind.ERROR, null);
+      reportTypeError(qr, "TypeChecking Error: visitQRef2");
+      return _types.base(TypeKind.ERROR);
     }
 
 
@@ -471,7 +562,7 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
   ///////////////////////////////////////////////////////////////////////////////
 
   public TypeDenoter visitIdentifier(Identifier id, Object o){
-    TypeDenoter td = id.getDeclaration().type;
+    TypeDenoter td = _types.shared(id.getDeclaration().type);
     return td;
   }
 
@@ -480,14 +571,14 @@ public class TypeChecking implements Visitor<Object, TypeDenoter> {
   }
 
   public TypeDenoter visitIntLiteral(IntLiteral num, Object o){
-    return new BaseType(TypeKind.INT, null);
+    return _types.base(TypeKind.INT);
   }
 
   public TypeDenoter visitBooleanLiteral(BooleanLiteral bool, Object o){
-    return new BaseType(TypeKind.BOOLEAN, null);
+    return _types.base(TypeKind.BOOLEAN);
   }
 
   public TypeDenoter visitNullLiteral(NullLiteral nl, Object o) {
-    return new BaseType(TypeKind.NULL, null);
+    return _types.base(TypeKind.NULL);
   }
 }
\ No newline at end of file
@@ -3,10 +3,11 @@ package miniJava;
 import java.util.List;
 import java.util.ArrayList;
 
+import miniJava.SyntacticAnalyzer.SourcePosition;
+
 // TODO: Note this class lacks a lot of things.
-//  First of all, errors are simple strings,
-//  perhaps it may be worthwhile to augment this reporter
-//  with requiring line numbers.
+//  Errors are still simple strings, a SourcePosition
+//  is only folded into the text when one is given.
 public class ErrorReporter {
 	private List<String> _errorQueue;
 	
@@ -19,6 +20,11 @@ public class ErrorReporter {
 		return !_errorQueue.isEmpty();
 	}
 	
+	// Forget everything reported so far, so one reporter can serve compilation after compilation
+	public void clear() {
+		_errorQueue.clear();
+	}
+
 	public void outputErrors() {
 		// TODO: output all errors in the errorQueue
 		for (String e : _errorQueue) {
@@ -34,4 +40,21 @@ public class ErrorReporter {
 		
 		_errorQueue.add(sb.toString());
 	}
+
+	public void reportError(SourcePosition posn, String ...error) {
+		StringBuilder sb = new StringBuilder();
+		if (posn != null)
+			sb.append(posn).append(": ");
+
+		for(String s : error)
+			sb.append(s);
+
+		_errorQueue.add(sb.toString());
+	}
+
+	// Appends another reporter's errors in the order they were reported, each led by prefix
+	public void merge(ErrorReporter other, String prefix) {
+		for (String e : other._errorQueue)
+			_errorQueue.add(prefix + e);
+	}
 }
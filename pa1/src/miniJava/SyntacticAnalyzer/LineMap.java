@@ -0,0 +1,41 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Offsets where each line of the source starts. Built lazily and only as far
+//  into the file as a position has been asked for, so a file that never
+//  reports an error or builds an AST never pays for it.
+class LineMap {
+  private final ByteBuffer _source;
+  private final ScanBuffers _buffers; // where the array is kept for the next file, or null
+  private int[] _lineStarts;
+  private int _lineCount = 1; // line 1 starts at offset 0
+  private int _scannedTo = 0;
+
+  LineMap(ByteBuffer source, ScanBuffers buffers) {
+    this._source = source;
+    this._buffers = buffers;
+    this._lineStarts = buffers != null ? buffers.lineStarts : new int[64];
+  }
+
+  long lineAndColumn(int offset) {
+    int end = Math.min(offset, _source.limit());
+    while (_scannedTo < end) {
+      if (_source.get(_scannedTo++) == '\n') {
+        if (_lineCount == _lineStarts.length) {
+          _lineStarts = Arrays.copyOf(_lineStarts, _lineCount * 2);
+          if (_buffers != null) {
+            _buffers.lineStarts = _lineStarts;
+          }
+        }
+        _lineStarts[_lineCount++] = _scannedTo;
+      }
+    }
+    int line = Arrays.binarySearch(_lineStarts, 0, _lineCount, offset);
+    if (line < 0) {
+      line = -line - 2; // index of the last line starting before offset
+    }
+    return SourcePosition.pack(line + 1, offset - _lineStarts[line] + 1);
+  }
+}
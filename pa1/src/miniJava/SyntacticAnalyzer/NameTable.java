@@ -0,0 +1,141 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One copy of every spelling the compiler sees (keywords, operators, identifiers).
+//  Looking a spelling up straight out of the scanner's buffer does not allocate
+//  unless that spelling has never been seen before.
+public class NameTable {
+  private static final String[] PREDEFINED = {
+      "", "class", "public", "private", "static", "void", "int", "boolean", "if", "else",
+      "return", "while", "this", "null", "new", "true", "false",
+      "{", "}", "(", ")", "[", "]", ",", ";", ".", "=",
+      "==", "!=", ">", ">=", "<", "<=", "!", "&&", "||", "+", "-", "*", "/",
+      "System", "String", "_PrintStream", "out", "println", "main", "args"
+  };
+
+  // Probed without a lock, so both arrays are swapped together when the table grows
+  private static final class Slots {
+    final String[] names;
+    final int[] hashes;
+
+    Slots(int capacity) {
+      names = new String[capacity];
+      hashes = new int[capacity];
+    }
+  }
+
+  private volatile Slots _slots;
+  private int _count;
+
+  public NameTable() {
+    clear();
+  }
+
+  // Back to only the predefined spellings, and to the starting size if a big program grew it.
+  //  Not while a scanner is still using the table.
+  public synchronized void clear() {
+    _slots = new Slots(256);
+    _count = 0;
+    for (String s : PREDEFINED) {
+      intern(s);
+    }
+  }
+
+  // Safe to share between scanners on different threads: a lookup that finds the spelling
+  //  takes no lock, only adding a new spelling does
+  public String intern(String s) {
+    int h = s.hashCode();
+    String name = find(_slots, h, s);
+    return name != null ? name : add(h, s);
+  }
+
+  // Same hash as String.hashCode() of the Latin-1 decoding of the bytes, so both lookups share entries
+  public String intern(ByteBuffer src, int offset, int length) {
+    int h = 0;
+    for (int k = 0; k < length; k++) {
+      h = 31 * h + (src.get(offset + k) & 0xFF);
+    }
+    Slots slots = _slots;
+    int mask = slots.names.length - 1;
+    int i = spread(h) & mask;
+    String name;
+    while ((name = slots.names[i]) != null) {
+      if (slots.hashes[i] == h && sameSpelling(name, src, offset, length)) {
+        return name;
+      }
+      i = (i + 1) & mask;
+    }
+    byte[] bytes = new byte[length];
+    src.get(offset, bytes);
+    return add(h, new String(bytes, StandardCharsets.ISO_8859_1));
+  }
+
+  public synchronized int size() {
+    return _count;
+  }
+
+  // A racing reader can see a slot half written and miss; it then ends up here and looks again under the lock
+  private static String find(Slots slots, int h, String s) {
+    int mask = slots.names.length - 1;
+    int i = spread(h) & mask;
+    String name;
+    while ((name = slots.names[i]) != null) {
+      if (slots.hashes[i] == h && name.equals(s)) {
+        return name;
+      }
+      i = (i + 1) & mask;
+    }
+    return null;
+  }
+
+  private static boolean sameSpelling(String name, ByteBuffer src, int offset, int length) {
+    if (name.length() != length) {
+      return false;
+    }
+    for (int k = 0; k < length; k++) {
+      if (name.charAt(k) != (char) (src.get(offset + k) & 0xFF)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized String add(int hash, String s) {
+    String name = find(_slots, hash, s); // another thread may have added it first
+    if (name != null) {
+      return name;
+    }
+    if ((_count + 1) * 2 > _slots.names.length) {
+      _slots = grow(_slots);
+    }
+    place(_slots, hash, s);
+    _count++;
+    return s;
+  }
+
+  private static void place(Slots slots, int hash, String name) {
+    int mask = slots.names.length - 1;
+    int i = spread(hash) & mask;
+    while (slots.names[i] != null) {
+      i = (i + 1) & mask;
+    }
+    slots.hashes[i] = hash;
+    slots.names[i] = name;
+  }
+
+  private static Slots grow(Slots old) {
+    Slots slots = new Slots(old.names.length * 2);
+    for (int j = 0; j < old.names.length; j++) {
+      if (old.names[j] != null) {
+        place(slots, old.hashes[j], old.names[j]);
+      }
+    }
+    return slots;
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+}
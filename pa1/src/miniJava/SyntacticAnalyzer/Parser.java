@@ -1,45 +1,91 @@
 package miniJava.SyntacticAnalyzer;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
 import miniJava.ErrorReporter;
 import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.AbstractSyntaxTrees.*;
 
 public class Parser {
+  // Tokens the parser can look ahead, a power of two so the ring index is a mask
+  private static final int LOOKAHEAD = 4;
+
   private Scanner _scanner;
   private ErrorReporter _errors;
   private Token _currentToken;
+  // Set by the first syntax error, parse() then hands back no tree
+  private boolean _syntaxErrors;
+  // Set while skipping to a synchronization point, errors found then are only echoes of the first
+  private boolean _recovering;
+  // Ring of scanned tokens starting at _head, its slots are refilled in place as the parser moves on
+  private final Token[] _lookahead = new Token[LOOKAHEAD];
+  private int _head;
+  // Lists are pushed here while they're parsed and sealed into exact slices once complete
+  private ListArena _lists;
+  // Every class gets the hash of its text, for BuildCache
+  private boolean _hashClasses;
+  // Where the method bodies of each class go once it's parsed, null to leave them in the tree
+  private CompactAST _compact;
 
   public Parser(Scanner scanner, ErrorReporter errors) {
+    this(scanner, errors, new ListArena());
+  }
+
+  public Parser(Scanner scanner, ErrorReporter errors, ListArena lists) {
+    this(scanner, errors, lists, false);
+  }
+
+  public Parser(Scanner scanner, ErrorReporter errors, ListArena lists, boolean hashClasses) {
+    this(scanner, errors, lists, hashClasses, null);
+  }
+
+  public Parser(Scanner scanner, ErrorReporter errors, ListArena lists, boolean hashClasses, CompactAST compact) {
+    this._hashClasses = hashClasses;
+    this._compact = compact;
     this._scanner = scanner;
     this._errors = errors;
-    this._currentToken = this._scanner.scan();
+    this._lists = lists;
+    for (int i = 0; i < LOOKAHEAD; i++) {
+      _lookahead[i] = _scanner.scan();
+    }
+    this._currentToken = _lookahead[0];
   }
 
   public Package parse() {
-    try {
-      // The first thing we need to parse is the Program symbol
-      return parseProgram();
-    } catch (SyntaxError e) {
-    }
-    return null;
+    // The first thing we need to parse is the Program symbol.
+    //  Syntax errors are recovered from so every one of them is reported in one run
+    Package prog = parseProgram();
+    return _syntaxErrors ? null : prog;
   }
 
   // Program ::= (ClassDeclaration)* eot
   private Package parseProgram() throws SyntaxError {
     // TODO: Keep parsing class declarations until eot
-    ClassDeclList cdl = new ClassDeclList();
+    SourcePosition posn = _currentToken.getTokenPosition();
+    int classes = _lists.mark();
     while (_currentToken.getTokenType() != TokenType.EOT) {
-      cdl.add(parseClassDeclaration());
+      int top = _lists.mark();
+      try {
+        _lists.push(parseClassDeclaration());
+      } catch (SyntaxError e) {
+        _lists.release(top); // whatever the broken class had pushed
+        skipTo(TokenType.CLASS);
+      }
     }
-    return new Package(cdl,null);
+    return new Package(_lists.seal(new ClassDeclList(), classes), posn);
   }
 
   // ClassDeclaration ::= class identifier { (FieldDeclaration|MethodDeclaration)* }
   private ClassDecl parseClassDeclaration() throws SyntaxError {
     // TODO: Take in a "class" token (check by the TokenType)
     //  What should be done if the first token isn't "class"?
-    FieldDeclList fdl = new FieldDeclList();
-    MethodDeclList mdl = new MethodDeclList();
+    SourcePosition posn = _currentToken.getTokenPosition();
+    int start = _currentToken.getOffset();
+    int sealed = _lists.position();
     accept(TokenType.CLASS);
 
     // TODO: Take in an identifier token
@@ -49,42 +95,67 @@ public class Parser {
     // TODO: Take in a {
     accept(TokenType.LCURLY);
     // TODO: Parse either a FieldDeclaration or MethodDeclaration
-    while (_currentToken.getTokenType() != TokenType.RCURLY) {
-      boolean isPrivate = parseVisibility();
-      boolean isStatic = parseAccess();
-      if (_currentToken.getTokenType() == TokenType.VOID) {
-        mdl.add(parseMethodDeclaration(null, isPrivate, isStatic));
-      } else {
-        TypeDenoter t = parseType();
-        FieldDecl fd = new FieldDecl(isPrivate, isStatic, t, _currentToken.getTokenText(), null);
-        accept(TokenType.IDENTIFIER);
-        if (_currentToken.getTokenType() == TokenType.SEMICOLON) {
-          fdl.add(fd);
-          accept(TokenType.SEMICOLON);
-        } else {
-          mdl.add(parseMethodDeclaration(fd, isPrivate, isStatic));
-        }
+    int members = _lists.mark();
+    while (!atBlockEnd()) {
+      int top = _lists.mark();
+      try {
+        parseMember();
+      } catch (SyntaxError e) {
+        _lists.release(top);
+        synchronizeMember();
       }
     }
     // TODO: Take in a }
+    int end = _currentToken.getOffset() + _currentToken.getLength();
     accept(TokenType.RCURLY);
-    ClassDecl cl = new ClassDecl(cn, fdl, mdl, null);
-    cl.type = new ClassType(classId, null);
+    // Fields and methods were pushed in source order, the methods are sealed off the top first
+    int methods = _lists.partition(members, MethodDecl.class);
+    MethodDeclList mdl = _lists.seal(new MethodDeclList(), methods);
+    FieldDeclList fdl = _lists.seal(new FieldDeclList(), members);
+    ClassDecl cl = new ClassDecl(cn, fdl, mdl, posn);
+    cl.type = new ClassType(classId, classId.posn);
+    if (_hashClasses) {
+      cl.sourceHash = _scanner.hash(start, end);
+    }
+    if (_compact != null) {
+      _compact.add(cl);
+      _lists.rewind(sealed); // the lists that are left were moved out of the arena
+    }
     return cl;
   }
+
+  // FieldDeclaration | MethodDeclaration, pushed on the list arena
+  private void parseMember() throws SyntaxError {
+    SourcePosition memberPosn = _currentToken.getTokenPosition();
+    boolean isPrivate = parseVisibility();
+    boolean isStatic = parseAccess();
+    if (_currentToken.getTokenType() == TokenType.VOID) {
+      _lists.push(parseMethodDeclaration(null, isPrivate, isStatic, memberPosn));
+    } else {
+      TypeDenoter t = parseType();
+      FieldDecl fd = new FieldDecl(isPrivate, isStatic, t, _currentToken.getTokenText(), memberPosn);
+      accept(TokenType.IDENTIFIER);
+      if (_currentToken.getTokenType() == TokenType.SEMICOLON) {
+        _lists.push(fd);
+        accept(TokenType.SEMICOLON);
+      } else {
+        _lists.push(parseMethodDeclaration(fd, isPrivate, isStatic, memberPosn));
+      }
+    }
+  }
   private FieldDecl parseFieldDeclaration() throws SyntaxError {
     parseType();
     accept(TokenType.IDENTIFIER);
     accept(TokenType.SEMICOLON);
     return null;
   }
-  private MethodDecl parseMethodDeclaration(FieldDecl fieldDecl, boolean isPrivate, boolean isStatic) throws SyntaxError {
+  private MethodDecl parseMethodDeclaration(FieldDecl fieldDecl, boolean isPrivate, boolean isStatic, SourcePosition posn) throws SyntaxError {
     FieldDecl fd = fieldDecl;
     ParameterDeclList paraml = new ParameterDeclList();
-    StatementList statel = new StatementList();
     if (_currentToken.getTokenType() == TokenType.VOID) {
+      SourcePosition voidPosn = _currentToken.getTokenPosition();
       accept(TokenType.VOID);
-      fd = new FieldDecl(isPrivate, isStatic, new BaseType(TypeKind.VOID, null), _currentToken.getTokenText(), null);
+      fd = new FieldDecl(isPrivate, isStatic, new BaseType(TypeKind.VOID, voidPosn), _currentToken.getTokenText(), posn);
       accept(TokenType.IDENTIFIER);
     }
     accept(TokenType.LPAREN);
@@ -93,18 +164,16 @@ public class Parser {
     }
     accept(TokenType.RPAREN);
     accept(TokenType.LCURLY);
-    while (_currentToken.getTokenType() != TokenType.RCURLY) {
-      statel.add(parseStatement());
-    }
+    StatementList statel = parseStatementList();
     accept(TokenType.RCURLY);
-    return new MethodDecl(fd, paraml, statel, null); //TODO: WARNING NO RIGHT DOESNT WORK
+    return new MethodDecl(fd, paraml, statel, posn);
   }
 
   private boolean parseVisibility() throws SyntaxError { //returns true if visibility is private
     if (_currentToken.getTokenType() == TokenType.PUBLIC) {
-      _currentToken = _scanner.scan();
+      advance();
     } else if (_currentToken.getTokenType() == TokenType.PRIVATE) {
-      _currentToken = _scanner.scan();
+      advance();
       return true;
     }
     return false;
@@ -112,12 +181,13 @@ public class Parser {
 
   private boolean parseAccess() throws SyntaxError { // returns true if static
     if (_currentToken.getTokenType() == TokenType.STATIC) {
-      _currentToken = _scanner.scan();
+      advance();
       return true;
     }
     return false;
   }
   private TypeDenoter parseType() throws SyntaxError {
+    SourcePosition posn = _currentToken.getTokenPosition();
     TypeKind typeKind;
     if (_currentToken.getTokenType() == TokenType.BOOLEAN) {
       typeKind = TypeKind.BOOLEAN;
@@ -125,84 +195,180 @@ public class Parser {
     } else if (_currentToken.getTokenType() == TokenType.INT) {
       typeKind = TypeKind.INT;
       accept(TokenType.INT);
-      if (_currentToken.getTokenType() == TokenType.BRACKETS) {
-        accept(TokenType.BRACKETS);
-        return new ArrayType(new BaseType(typeKind, null), null);
+      if (atEmptyBrackets()) {
+        acceptBrackets();
+        return new ArrayType(new BaseType(typeKind, posn), posn);
       }
     } else if (_currentToken.getTokenType() == TokenType.IDENTIFIER){
       Identifier cn = new Identifier(_currentToken);
       accept(TokenType.IDENTIFIER);
-      if (_currentToken.getTokenType() == TokenType.BRACKETS) {
-        typeKind = TypeKind.ARRAY;
-        accept(TokenType.BRACKETS);
-        return new ArrayType(new ClassType(cn, null), null);
+      if (atEmptyBrackets()) {
+        acceptBrackets();
+        return new ArrayType(new ClassType(cn, posn), posn);
       }
       if (_currentToken.getTokenType() == TokenType.PERIOD) {
         return null;
       } else {
-        return new ClassType(cn, null);
+        return new ClassType(cn, posn);
       }
     } else {
       typeKind = TypeKind.UNSUPPORTED;
     }
-    return new BaseType(typeKind, null);
+    return new BaseType(typeKind, posn);
   }
 
   private ParameterDeclList parseParameterList() throws SyntaxError {
-    ParameterDeclList paraml = new ParameterDeclList();
+    int params = _lists.mark();
+    SourcePosition posn = _currentToken.getTokenPosition();
     TypeDenoter td0 = parseType();
-    paraml.add(new ParameterDecl(td0, _currentToken.getTokenText(), null));
+    _lists.push(new ParameterDecl(td0, _currentToken.getTokenText(), posn));
     accept(TokenType.IDENTIFIER);
 
     while (_currentToken.getTokenType() == TokenType.COMMA) {
       accept(TokenType.COMMA);
+      posn = _currentToken.getTokenPosition();
       TypeDenoter td1 = parseType();
-      paraml.add(new ParameterDecl(td1, _currentToken.getTokenText(), null));
+      _lists.push(new ParameterDecl(td1, _currentToken.getTokenText(), posn));
       accept(TokenType.IDENTIFIER);
     }
-    return paraml;
+    return _lists.seal(new ParameterDeclList(), params);
   }
 
   private ExprList parseArgumentList() throws SyntaxError {
-    ExprList exprl = new ExprList();
-    exprl.add(parseExpression());
+    int args = _lists.mark();
+    _lists.push(parseExpression());
     while (_currentToken.getTokenType() == TokenType.COMMA) {
       accept(TokenType.COMMA);
-      exprl.add(parseExpression());
+      _lists.push(parseExpression());
     }
-    return exprl;
+    return _lists.seal(new ExprList(), args);
   }
 
   private Reference parseReference() throws SyntaxError { //check method return type
+    SourcePosition posn = _currentToken.getTokenPosition();
     Reference ref;
     if (_currentToken.getTokenType() == TokenType.IDENTIFIER) {
       Identifier id = new Identifier(_currentToken);
-      ref = new IdRef(id, null);
+      ref = new IdRef(id, posn);
       accept(TokenType.IDENTIFIER);
     } else if (_currentToken.getTokenType() == TokenType.THIS){
-      ref = new ThisRef(null);
+      ref = new ThisRef(posn);
       accept(TokenType.THIS);
     } else {
       ref = null;
     }
     while (_currentToken.getTokenType() == TokenType.PERIOD) {
       accept(TokenType.PERIOD);
-      ref = new QualRef(ref, new Identifier(_currentToken), null);
+      ref = new QualRef(ref, new Identifier(_currentToken), posn);
       accept(TokenType.IDENTIFIER);
     }
     return ref;
   }
-  //TODO:
-  private Statement parseStatement() throws SyntaxError {
-    if (_currentToken.getTokenType() == TokenType.LCURLY) {
-      StatementList statel = new StatementList();
-      accept(TokenType.LCURLY);
-      while (_currentToken.getTokenType() != TokenType.RCURLY) {
-        statel.add(parseStatement());
+  // A block, if or while the parser is inside of. A block collects its statements on the list
+  //  arena, an if or while waits for the statement it controls.
+  private static class Nesting {
+    final TokenType kind; // LCURLY, IF or WHILE
+    final SourcePosition posn;
+    Expression cond;
+    Statement thenStmt; // set once an if has its then branch and is waiting for the else
+    int statements; // LCURLY: where its statements start on the list arena
+    int top; // LCURLY: the list arena before the statement being parsed in it
+
+    Nesting(TokenType kind, SourcePosition posn) {
+      this.kind = kind;
+      this.posn = posn;
+    }
+  }
+
+  // Statements up to the closing }, a broken statement is skipped and the ones after it still parsed.
+  //  Blocks, ifs and whiles are kept on a stack of their own rather than parsed by recursion, so
+  //  however deep statements nest the parser doesn't run out of thread stack.
+  private StatementList parseStatementList() {
+    Deque<Nesting> open = new ArrayDeque<Nesting>();
+    Nesting body = new Nesting(TokenType.LCURLY, null);
+    body.statements = _lists.mark();
+    open.push(body);
+    while (true) {
+      Nesting inner = open.peek();
+      try {
+        if (inner.kind == TokenType.LCURLY) {
+          if (atBlockEnd()) {
+            if (inner == body) {
+              break;
+            }
+            open.pop(); // before the accept, a missing } is the enclosing block's broken statement
+            accept(TokenType.RCURLY);
+            finish(open, new BlockStmt(_lists.seal(new StatementList(), inner.statements), inner.posn));
+            continue;
+          }
+          inner.top = _lists.mark();
+        }
+        Statement stmt = parseStatement(open);
+        if (stmt != null) {
+          finish(open, stmt);
+        }
+      } catch (SyntaxError e) {
+        while (open.peek().kind != TokenType.LCURLY) {
+          open.pop();
+        }
+        _lists.release(open.peek().top);
+        synchronize();
       }
-      accept(TokenType.RCURLY);
-      return new BlockStmt(statel, null);
-    } else if (_currentToken.getTokenType() == TokenType.INT
+    }
+    return _lists.seal(new StatementList(), body.statements);
+  }
+
+  // Hands a complete statement to what it is nested in, an if or while that is then complete
+  //  goes on to what it is nested in
+  private void finish(Deque<Nesting> open, Statement stmt) throws SyntaxError {
+    while (true) {
+      Nesting outer = open.peek();
+      if (outer.kind == TokenType.LCURLY) {
+        _lists.push(stmt);
+        return;
+      } else if (outer.kind == TokenType.IF && outer.thenStmt == null) {
+        if (_currentToken.getTokenType() == TokenType.ELSE) {
+          accept(TokenType.ELSE);
+          outer.thenStmt = stmt;
+          return;
+        }
+        stmt = new IfStmt(outer.cond, stmt, null, outer.posn);
+      } else if (outer.kind == TokenType.IF) {
+        stmt = new IfStmt(outer.cond, outer.thenStmt, stmt, outer.posn);
+      } else {
+        stmt = new WhileStmt(outer.cond, stmt, outer.posn);
+      }
+      open.pop();
+    }
+  }
+
+  // A block, if or while is opened on open and null returned, finish builds it once its
+  //  statements are parsed. Any other statement is parsed whole.
+  private Statement parseStatement(Deque<Nesting> open) throws SyntaxError {
+    SourcePosition posn = _currentToken.getTokenPosition();
+    TokenType type = _currentToken.getTokenType();
+    if (type == TokenType.LCURLY) {
+      accept(TokenType.LCURLY);
+      Nesting block = new Nesting(type, posn);
+      block.statements = _lists.mark();
+      open.push(block);
+      return null;
+    } else if (type == TokenType.IF || type == TokenType.WHILE) {
+      accept(type);
+      accept(TokenType.LPAREN);
+      Nesting nesting = new Nesting(type, posn);
+      nesting.cond = parseExpression();
+      accept(TokenType.RPAREN);
+      open.push(nesting);
+      return null;
+    }
+    return parseStatement();
+  }
+
+  // Statements that contain no other statement
+  private Statement parseStatement() throws SyntaxError {
+    SourcePosition posn = _currentToken.getTokenPosition();
+    if (_currentToken.getTokenType() == TokenType.INT
         || _currentToken.getTokenType() == TokenType.BOOLEAN) {
       TypeDenoter t = parseType();
       String name = _currentToken.getTokenText();
@@ -210,54 +376,22 @@ public class Parser {
       accept(TokenType.EQUALS);
       Expression expr = parseExpression();
       accept(TokenType.SEMICOLON);
-      return new VarDeclStmt(new VarDecl(t, name, null), expr, null);
-    } else if (_currentToken.getTokenType() == TokenType.IDENTIFIER || _currentToken.getTokenType() == TokenType.THIS) { // could be Reference or Type
-      String id0 = _currentToken.getTokenText();
-      Identifier id = new Identifier(_currentToken);
-//      accept(TokenType.IDENTIFIER);
-      Reference ref;
-      TypeDenoter t0 = null;
-//      ref = new IdRef(id, null);
-//      t0 = parseType();
-//      if (_currentToken.getTokenType() == TokenType.THIS) {
-//        ref = parseReference();
-//      } else {
-//        ref = new IdRef(id, null);
-//        t0 = parseType();
-//      }
-      ref = parseReference();
-      if (ref instanceof IdRef) {
-        t0 = new ClassType(id, null);
-        if (_currentToken.getTokenType() == TokenType.BRACKETS){
-          t0 = new ArrayType(t0, null);
-        }
-      }
-      if (_currentToken.getTokenType() == TokenType.BRACKETS) { //id[]
-        accept(TokenType.BRACKETS);
-        String name = _currentToken.getTokenText();
-//        accept(TokenType.IDENTIFIER);
-        TypeDenoter t = parseType();
-        accept(TokenType.EQUALS);
-        Expression expr = parseExpression();
-        accept(TokenType.SEMICOLON);
-        return new VarDeclStmt(new VarDecl(t0, name, null), expr, null);
-      } else if (_currentToken.getTokenType() == TokenType.IDENTIFIER) {
-//        accept(TokenType.IDENTIFIER);
-        String name = _currentToken.getTokenText();
-        TypeDenoter t = parseType();
-        accept(TokenType.EQUALS);
-        Expression expr = parseExpression();
-        accept(TokenType.SEMICOLON);
-        return new VarDeclStmt(new VarDecl(t0, name, null), expr, null);
-      } else if (_currentToken.getTokenType() == TokenType.PERIOD) {
-//        accept(TokenType.PERIOD);
-//        parseReference();
-        return parseStatement();
-      } else if (_currentToken.getTokenType() == TokenType.EQUALS) {
+      return new VarDeclStmt(new VarDecl(t, name, posn), expr, posn);
+    } else if (_currentToken.getTokenType() == TokenType.IDENTIFIER && isLocalDeclaration()) {
+      TypeDenoter t = parseType();
+      String name = _currentToken.getTokenText();
+      accept(TokenType.IDENTIFIER);
+      accept(TokenType.EQUALS);
+      Expression expr = parseExpression();
+      accept(TokenType.SEMICOLON);
+      return new VarDeclStmt(new VarDecl(t, name, posn), expr, posn);
+    } else if (_currentToken.getTokenType() == TokenType.IDENTIFIER || _currentToken.getTokenType() == TokenType.THIS) {
+      Reference ref = parseReference();
+      if (_currentToken.getTokenType() == TokenType.EQUALS) {
         accept(TokenType.EQUALS);
         Expression expr = parseExpression();
         accept(TokenType.SEMICOLON);
-        return new AssignStmt(ref, expr, null);
+        return new AssignStmt(ref, expr, posn);
       } else if (_currentToken.getTokenType() == TokenType.LBRACK) {
         accept(TokenType.LBRACK);
         Expression expr0 = parseExpression();
@@ -265,7 +399,7 @@ public class Parser {
         accept(TokenType.EQUALS);
         Expression expr1 = parseExpression();
         accept(TokenType.SEMICOLON);
-        return new IxAssignStmt(ref, expr0, expr1, null);
+        return new IxAssignStmt(ref, expr0, expr1, posn);
       } else if (_currentToken.getTokenType() == TokenType.LPAREN) {
         ExprList exprl = new ExprList();
         accept(TokenType.LPAREN);
@@ -274,10 +408,9 @@ public class Parser {
         }
         accept(TokenType.RPAREN);
         accept(TokenType.SEMICOLON);
-        return new CallStmt(ref, exprl, null);
+        return new CallStmt(ref, exprl, posn);
       } else {
-        _errors.reportError("Expected a Statement, but got \"" + _currentToken.getTokenText() + "\"");
-        throw new SyntaxError();
+        throw syntaxError("Expected a Statement, but got \"" + _currentToken.getTokenText() + "\"");
       }
     } else if (_currentToken.getTokenType() == TokenType.RETURN) {
       Expression expr = null;
@@ -286,42 +419,72 @@ public class Parser {
         expr = parseExpression();
       }
       accept(TokenType.SEMICOLON);
-      return new ReturnStmt(expr, null);
-    } else if (_currentToken.getTokenType() == TokenType.IF) {
-      accept(TokenType.IF);
-      accept(TokenType.LPAREN);
-      Expression expr = parseExpression();
-      accept(TokenType.RPAREN);
-      if (_currentToken.getTokenType() != TokenType.LCURLY) {
-//        _errors.reportError("Can't have single line if statements");
-      }
-      Statement stmt0 = parseStatement();
-      Statement stmt1 = null;
-      if (_currentToken.getTokenType() == TokenType.ELSE) {
-        accept(TokenType.ELSE);
-//        if (_currentToken.getTokenType() != TokenType.LCURLY) {
-//          _errors.reportError("Can't have single line else statements");
-//        }
-        stmt1 = parseStatement();
-      }
-      return new IfStmt(expr, stmt0, stmt1, null);
-    } else if (_currentToken.getTokenType() == TokenType.WHILE) {
-      accept(TokenType.WHILE);
-      accept(TokenType.LPAREN);
-      Expression expr = parseExpression();
-      accept(TokenType.RPAREN);
-//      if (_currentToken.getTokenType() != TokenType.LCURLY) {
-//        _errors.reportError("Can't have single line while statements");
-//      }
-      Statement stmt = parseStatement();
-      return new WhileStmt(expr, stmt, null);
+      return new ReturnStmt(expr, posn);
     } else {
-      _errors.reportError("Expected a Statement, but got \"" + _currentToken.getTokenText() + "\"");
-      throw new SyntaxError();
+      throw syntaxError("Expected a Statement, but got \"" + _currentToken.getTokenText() + "\"");
     }
   }
+  // Binary operator precedence, higher binds tighter. Every level is left associative.
+  private static final Map<String,Integer> _BinaryPrecedence;
+  static {
+    Map<String,Integer> prec = new HashMap<String,Integer>();
+    prec.put("||", 1);
+    prec.put("&&", 2);
+    prec.put("==", 3);
+    prec.put("!=", 3);
+    prec.put("<", 4);
+    prec.put("<=", 4);
+    prec.put(">", 4);
+    prec.put(">=", 4);
+    prec.put("+", 5);
+    prec.put("-", 5);
+    prec.put("*", 6);
+    prec.put("/", 6);
+    _BinaryPrecedence = Collections.unmodifiableMap(prec);
+  }
+
   private Expression parseExpression() throws SyntaxError {
-    Expression finalExpr = null;
+    return parseBinary(1);
+  }
+
+  // Precedence climbing: operators at or above minPrec are folded into the left operand
+  //  in a loop, so a long chain costs one frame per precedence level rather than per operator
+  private Expression parseBinary(int minPrec) throws SyntaxError {
+    Expression left = parseUnary();
+    while (true) {
+      int prec = binaryPrecedence();
+      if (prec < minPrec) {
+        return left;
+      }
+      Operator op = new Operator(_currentToken);
+      accept(TokenType.OPERATOR);
+      Expression right = parseBinary(prec + 1);
+      left = new BinaryExpr(op, left, right, op.posn);
+    }
+  }
+
+  // Precedence of the current token as a binary operator, 0 if it isn't one
+  private int binaryPrecedence() {
+    if (_currentToken.getTokenType() != TokenType.OPERATOR) {
+      return 0;
+    }
+    Integer prec = _BinaryPrecedence.get(_currentToken.getTokenText());
+    return prec == null ? 0 : prec;
+  }
+
+  private Expression parseUnary() throws SyntaxError {
+    if (_currentToken.getTokenType() == TokenType.OPERATOR
+        && (_currentToken.getTokenText().equals("!") || _currentToken.getTokenText().equals("-"))) {
+      SourcePosition posn = _currentToken.getTokenPosition();
+      Operator op = new Operator(_currentToken);
+      accept(TokenType.OPERATOR);
+      return new UnaryExpr(op, parseUnary(), posn);
+    }
+    return parsePrimary();
+  }
+
+  private Expression parsePrimary() throws SyntaxError {
+    SourcePosition posn = _currentToken.getTokenPosition();
     if (_currentToken.getTokenType() == TokenType.IDENTIFIER
         || _currentToken.getTokenType() == TokenType.THIS) {
       Reference ref = parseReference();
@@ -329,8 +492,7 @@ public class Parser {
         accept(TokenType.LBRACK);
         Expression expr = parseExpression();
         accept(TokenType.RBRACK);
-//        return new IxExpr(ref, expr, null);
-        finalExpr = new IxExpr(ref, expr, null);
+        return new IxExpr(ref, expr, posn);
       } else if (_currentToken.getTokenType() == TokenType.LPAREN) {
         ExprList exprl = new ExprList();
         accept(TokenType.LPAREN);
@@ -338,128 +500,179 @@ public class Parser {
           exprl = parseArgumentList();
         }
         accept(TokenType.RPAREN);
-//        return new CallExpr(ref, exprl, null);
-        finalExpr = new CallExpr(ref, exprl, null);
-
-      } else if (_currentToken.getTokenType() == TokenType.SEMICOLON || _currentToken.getTokenType() == TokenType.RPAREN || _currentToken.getTokenType() == TokenType.RBRACK || _currentToken.getTokenType() == TokenType.COMMA) {
-//        return new RefExpr(ref, null);
-        finalExpr = new RefExpr(ref, null);
-
-      } else if (_currentToken.getTokenType() == TokenType.OPERATOR && !_currentToken.getTokenText().equals("!")) {
-        Operator op = new Operator(_currentToken);
-        accept(TokenType.OPERATOR);
-        Expression expr = parseExpression();
-//        return new BinaryExpr(op, new RefExpr(ref, null), expr, null);
-        if (expr instanceof BinaryExpr) {
-          finalExpr = new BinaryExpr(((BinaryExpr) expr).operator, new BinaryExpr(op, new RefExpr(ref, null), ((BinaryExpr) expr).left, null), ((BinaryExpr) expr).right, null);
-        } else {
-          finalExpr = new BinaryExpr(op, new RefExpr(ref, null), expr, null);
-        }
-//        finalExpr = new BinaryExpr(op, new RefExpr(ref, null), expr, null);
-
-      }
-    } else if (_currentToken.getTokenText().equals("!")
-        || _currentToken.getTokenText().equals("-")) { // TODO: warning need to check - for unop or binop?
-      Operator op = new Operator(_currentToken);
-      _currentToken = _scanner.scan();
-      Expression expr = parseExpression();
-//      return new UnaryExpr(op, expr, null);
-      if (expr instanceof BinaryExpr) {
-        finalExpr = new BinaryExpr(((BinaryExpr) expr).operator, new UnaryExpr(op, ((BinaryExpr) expr).left, null), ((BinaryExpr) expr).right, null);
-      } else {
-        finalExpr = new UnaryExpr(op, expr, null);
+        return new CallExpr(ref, exprl, posn);
       }
+      return new RefExpr(ref, posn);
     } else if (_currentToken.getTokenType() == TokenType.LPAREN) {
       accept(TokenType.LPAREN);
       Expression expr = parseExpression();
       accept(TokenType.RPAREN);
-//      return expr;
-      finalExpr = expr;
-
-    } else if (_currentToken.getTokenType() == TokenType.INTLITERAL
-        || _currentToken.getTokenType() == TokenType.BOOLEANLITERAL || _currentToken.getTokenType() == TokenType.NULLLITERAL) { // TODO: warning need to check for expression at start not just int or bool
-      Expression expr0;
-      if (_currentToken.getTokenType() == TokenType.INTLITERAL) {
-        expr0 = new LiteralExpr(new IntLiteral(_currentToken), null);
-      } else if (_currentToken.getTokenType() == TokenType.BOOLEANLITERAL){
-        expr0 = new LiteralExpr(new BooleanLiteral(_currentToken), null);
-      } else {
-        expr0 = new LiteralExpr(new NullLiteral(_currentToken), null);
-      }
-      _currentToken = _scanner.scan();
-      if (_currentToken.getTokenType() == TokenType.OPERATOR) {
-        Operator op = new Operator(_currentToken);
-        accept(TokenType.OPERATOR);
-        Expression expr = parseExpression();
-//        return new BinaryExpr(op, expr0, expr, null);
-        if (expr instanceof BinaryExpr) {
-          finalExpr = new BinaryExpr(((BinaryExpr) expr).operator, new BinaryExpr(op, expr0, ((BinaryExpr) expr).left, null), ((BinaryExpr) expr).right, null);
-        } else {
-          finalExpr = new BinaryExpr(op, expr0, expr, null);
-        }
-
-      } else {
-        //      return expr0;
-        finalExpr = expr0;
-      }
+      return expr;
+    } else if (_currentToken.getTokenType() == TokenType.INTLITERAL) {
+      Expression expr = new LiteralExpr(new IntLiteral(_currentToken), posn);
+      advance();
+      return expr;
+    } else if (_currentToken.getTokenType() == TokenType.BOOLEANLITERAL) {
+      Expression expr = new LiteralExpr(new BooleanLiteral(_currentToken), posn);
+      advance();
+      return expr;
+    } else if (_currentToken.getTokenType() == TokenType.NULLLITERAL) {
+      Expression expr = new LiteralExpr(new NullLiteral(_currentToken), posn);
+      advance();
+      return expr;
     } else if (_currentToken.getTokenType() == TokenType.NEW) {
       accept(TokenType.NEW);
       if (_currentToken.getTokenType() == TokenType.INT) {
-//        accept(TokenType.INT);
         TypeDenoter td = parseType();
         accept(TokenType.LBRACK);
         Expression expr = parseExpression();
         accept(TokenType.RBRACK);
-//        return new NewArrayExpr(td, expr, null);
-        finalExpr = new NewArrayExpr(td, expr, null);
-
-      } else {
-        ClassType ct = new ClassType(new Identifier(_currentToken), null);
-        accept(TokenType.IDENTIFIER);
-        if (_currentToken.getTokenType() == TokenType.LPAREN) {
-          accept(TokenType.LPAREN);
-          accept(TokenType.RPAREN);
-//          return new NewObjectExpr(ct, null);
-          finalExpr = new NewObjectExpr(ct, null);
-
-        } else {
-          accept(TokenType.LBRACK);
-          Expression expr = parseExpression();
-          accept(TokenType.RBRACK);
-//          return new NewArrayExpr(ct, expr, null);
-          finalExpr = new NewArrayExpr(ct, expr, null);
-
-        }
+        return new NewArrayExpr(td, expr, posn);
       }
-    } else {
-      _errors.reportError(
-          "Expected an Expression, but got \"" + _currentToken.getTokenText() + "\"");
-      throw new SyntaxError();
-    }
-    if (_currentToken.getTokenType() == TokenType.OPERATOR
-        && !_currentToken.getTokenText().equals("!")) {
-      Operator op = new Operator(_currentToken);
-      accept(TokenType.OPERATOR);
+      ClassType ct = new ClassType(new Identifier(_currentToken), _currentToken.getTokenPosition());
+      accept(TokenType.IDENTIFIER);
+      if (_currentToken.getTokenType() == TokenType.LPAREN) {
+        accept(TokenType.LPAREN);
+        accept(TokenType.RPAREN);
+        return new NewObjectExpr(ct, posn);
+      }
+      accept(TokenType.LBRACK);
       Expression expr = parseExpression();
-      finalExpr = new BinaryExpr(op, finalExpr, expr, null);
-
+      accept(TokenType.RBRACK);
+      return new NewArrayExpr(ct, expr, posn);
     }
-    return finalExpr;
+    throw syntaxError("Expected an Expression, but got \"" + _currentToken.getTokenText() + "\"");
+  }
+
+  // Class typed declarations start "id id" or "id [ ] id", anything else starting
+  //  with an identifier is a reference. Two tokens of lookahead settle it.
+  private boolean isLocalDeclaration() {
+    TokenType next = peek(1).getTokenType();
+    return next == TokenType.IDENTIFIER
+        || (next == TokenType.LBRACK && peek(2).getTokenType() == TokenType.RBRACK);
+  }
+
+  private boolean atEmptyBrackets() {
+    return _currentToken.getTokenType() == TokenType.LBRACK
+        && peek(1).getTokenType() == TokenType.RBRACK;
+  }
+
+  private void acceptBrackets() throws SyntaxError {
+    accept(TokenType.LBRACK);
+    accept(TokenType.RBRACK);
+  }
+
+  // The token k places past the current one, k < LOOKAHEAD
+  private Token peek(int k) {
+    return _lookahead[(_head + k) & (LOOKAHEAD - 1)];
+  }
+
+  // Moves on one token, the slot just left behind is refilled with the next scanned token
+  private void advance() {
+    _scanner.scan(_lookahead[_head]);
+    _head = (_head + 1) & (LOOKAHEAD - 1);
+    _currentToken = _lookahead[_head];
   }
 
   // This method will accept the token and retrieve the next token.
   //  Can be useful if you want to error check and accept all-in-one.
   private void accept(TokenType expectedType) throws SyntaxError {
     if (_currentToken.getTokenType() == expectedType) {
-      _currentToken = _scanner.scan();
+      advance();
+      _recovering = false;
       return;
     }
 
     // TODO: Report an error here.
     //  "Expected token X, but got Y"
-    _errors.reportError(
-        "Expected " + expectedType + ", but got \"" + _currentToken.getTokenText() + "\"");
-    throw new SyntaxError();
+    throw syntaxError("Expected " + expectedType + ", but got \"" + _currentToken.getTokenText() + "\"");
+  }
+
+  private SyntaxError syntaxError(String message) {
+    if (!_recovering) {
+      _errors.reportError(_currentToken.getTokenPosition(), message);
+    }
+    _syntaxErrors = true;
+    _recovering = true;
+    return new SyntaxError();
+  }
+
+  // A class body or block ends at its }, or at the next class or eot if the } is missing
+  private boolean atBlockEnd() {
+    TokenType type = _currentToken.getTokenType();
+    return type == TokenType.RCURLY || type == TokenType.CLASS || type == TokenType.EOT;
+  }
+
+  // Panic mode: skip past the next ; or balanced { } on this nesting level. A } closing the
+  //  enclosing block, a class or eot is left for the caller, whose accept may then fail quietly.
+  private void synchronize() {
+    int depth = 0;
+    while (true) {
+      TokenType type = _currentToken.getTokenType();
+      if (type == TokenType.CLASS || type == TokenType.EOT || (type == TokenType.RCURLY && depth == 0)) {
+        return;
+      }
+      advance();
+      if (type == TokenType.LCURLY) {
+        depth++;
+      } else if (type == TokenType.RCURLY) {
+        depth--;
+      }
+      if (depth == 0 && (type == TokenType.SEMICOLON || type == TokenType.RCURLY)) {
+        _recovering = false;
+        return;
+      }
+    }
+  }
+
+  // Like synchronize, but a member starting on this level ends the skipping too, before its first
+  //  token. A member whose ; is missing then doesn't take the method after it down with it.
+  private void synchronizeMember() {
+    int depth = 0;
+    while (true) {
+      TokenType type = _currentToken.getTokenType();
+      if (type == TokenType.CLASS || type == TokenType.EOT || (type == TokenType.RCURLY && depth == 0)) {
+        return;
+      } else if (depth == 0 && atMemberStart()) {
+        _recovering = false;
+        return;
+      }
+      advance();
+      if (type == TokenType.LCURLY) {
+        depth++;
+      } else if (type == TokenType.RCURLY) {
+        depth--;
+      }
+      if (depth == 0 && (type == TokenType.SEMICOLON || type == TokenType.RCURLY)) {
+        _recovering = false;
+        return;
+      }
+    }
+  }
+
+  // A modifier or void, which only members start with, or a type, a name and ( or ;. An array
+  //  type leaves no lookahead for what follows the name, "type [ ] name" has to do.
+  private boolean atMemberStart() {
+    TokenType type = _currentToken.getTokenType();
+    if (type == TokenType.PUBLIC || type == TokenType.PRIVATE || type == TokenType.STATIC || type == TokenType.VOID) {
+      return true;
+    } else if (type != TokenType.INT && type != TokenType.BOOLEAN && type != TokenType.IDENTIFIER) {
+      return false;
+    } else if (atArrayType()) {
+      return peek(3).getTokenType() == TokenType.IDENTIFIER;
+    }
+    TokenType after = peek(2).getTokenType();
+    return peek(1).getTokenType() == TokenType.IDENTIFIER && (after == TokenType.LPAREN || after == TokenType.SEMICOLON);
+  }
+
+  private boolean atArrayType() {
+    return peek(1).getTokenType() == TokenType.LBRACK && peek(2).getTokenType() == TokenType.RBRACK;
+  }
+
+  private void skipTo(TokenType type) {
+    while (_currentToken.getTokenType() != type && _currentToken.getTokenType() != TokenType.EOT) {
+      advance();
+    }
   }
 
   class SyntaxError extends Error {
@@ -0,0 +1,40 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// What a scanner would otherwise allocate for every file: the heap buffer the source is read
+//  into and the array LineMap keeps line starts in. A daemon holds on to one set, so once it has
+//  seen its biggest file reading another allocates nothing. A file's text is only valid until
+//  the next file is read into the same buffers. Not thread safe, files scanned side by side each
+//  take a child.
+public class ScanBuffers {
+  private ByteBuffer _source = ByteBuffer.allocate(1 << 16);
+  int[] lineStarts = new int[64]; // LineMap puts back what it grew it to
+
+  // Buffers for files scanned side by side, kept along with this one
+  private final List<ScanBuffers> _children = new ArrayList<ScanBuffers>();
+
+  // All of in, in the buffer kept from the last file while it fits
+  ByteBuffer read(InputStream in) throws IOException {
+    _source.clear();
+    int n;
+    while ((n = in.read(_source.array(), _source.position(), _source.remaining())) >= 0) {
+      _source.position(_source.position() + n);
+      if (!_source.hasRemaining()) {
+        _source = ByteBuffer.allocate(_source.capacity() * 2).put(_source.flip());
+      }
+    }
+    return _source.flip();
+  }
+
+  public ScanBuffers child(int i) {
+    while (_children.size() <= i) {
+      _children.add(new ScanBuffers());
+    }
+    return _children.get(i);
+  }
+}
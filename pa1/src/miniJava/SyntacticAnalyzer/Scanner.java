@@ -1,270 +1,349 @@
 package miniJava.SyntacticAnalyzer;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import miniJava.ErrorReporter;
 
 public class Scanner {
-  private final InputStream _in;
+  // Character classes for the ASCII range, anything above 127 is OTHER
+  private static final byte OTHER = 0;
+  private static final byte WHITESPACE = 1;
+  private static final byte DELIMITER = 2;
+  private static final byte DIGIT = 3;
+  private static final byte LETTER = 4;
+  private static final byte UNDERSCORE = 5;
+  private static final byte[] CHAR_CLASS = new byte[128];
+
+  private static final byte[][] KEYWORD_SPELLINGS = new byte[32][];
+  private static final TokenType[] KEYWORD_TYPES = new TokenType[32];
+
+  static {
+    for (char c : " \t\n\r".toCharArray()) {
+      CHAR_CLASS[c] = WHITESPACE;
+    }
+    for (char c : "{}()[],;.=/><!&|+-*".toCharArray()) {
+      CHAR_CLASS[c] = DELIMITER;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      CHAR_CLASS[c] = DIGIT;
+    }
+    for (char c = 'a'; c <= 'z'; c++) {
+      CHAR_CLASS[c] = LETTER;
+      CHAR_CLASS[Character.toUpperCase(c)] = LETTER;
+    }
+    CHAR_CLASS['_'] = UNDERSCORE;
+
+    addKeyword("class", TokenType.CLASS);
+    addKeyword("public", TokenType.PUBLIC);
+    addKeyword("private", TokenType.PRIVATE);
+    addKeyword("static", TokenType.STATIC);
+    addKeyword("void", TokenType.VOID);
+    addKeyword("int", TokenType.INT);
+    addKeyword("boolean", TokenType.BOOLEAN);
+    addKeyword("if", TokenType.IF);
+    addKeyword("else", TokenType.ELSE);
+    addKeyword("return", TokenType.RETURN);
+    addKeyword("while", TokenType.WHILE);
+    addKeyword("this", TokenType.THIS);
+    addKeyword("null", TokenType.NULLLITERAL);
+    addKeyword("new", TokenType.NEW);
+    addKeyword("true", TokenType.BOOLEANLITERAL);
+    addKeyword("false", TokenType.BOOLEANLITERAL);
+  }
+
+  private static void addKeyword(String spelling, TokenType type) {
+    int slot = keywordHash(spelling.charAt(0), spelling.charAt(spelling.length() - 1), spelling.length());
+    if (KEYWORD_SPELLINGS[slot] != null) {
+      throw new IllegalStateException("Keyword hash collision on \"" + spelling + "\"");
+    }
+    KEYWORD_SPELLINGS[slot] = spelling.getBytes(StandardCharsets.ISO_8859_1);
+    KEYWORD_TYPES[slot] = type;
+  }
+
   private final ErrorReporter _errors;
-  private final StringBuilder _currentText;
+  private final NameTable _names;
+  private final ByteBuffer _source; // whole input, scanned with _cursor instead of one read() per char
+  private final LineMap _lines;
+  private int _cursor;
+  private int _charOffset; // offset of _currentChar in _source
+  private int _tokenStart; // offset where the token being scanned begins
   private char _currentChar;
   private boolean _endOfFileReached;
 
   public Scanner(InputStream in, ErrorReporter errors) {
-    this._in = in;
+    this(in, errors, new NameTable());
+  }
+
+  public Scanner(InputStream in, ErrorReporter errors, NameTable names) {
+    this(in, errors, names, null);
+  }
+
+  // With buffers the source is read into memory kept from the files before, see ScanBuffers
+  public Scanner(InputStream in, ErrorReporter errors, NameTable names, ScanBuffers buffers) {
     this._errors = errors;
-    this._currentText = new StringBuilder();
+    this._names = names;
     this._endOfFileReached = false;
+    this._source = readSource(in, buffers);
+    this._lines = new LineMap(_source, buffers);
+    this._cursor = 0;
 
     nextChar();
   }
 
-  public Token scan() {
-    // TODO: This function should check the current char to determine what the token could be.
-
-    // TODO: Consider what happens if the current char is whitespace
-
-    // TODO: Consider what happens if there is a comment (// or /* */)
-
-    // TODO: What happens if there are no more tokens?
+  // Files get memory-mapped so the OS pages them in, anything else is drained into one heap buffer.
+  //  Given buffers, everything is read into those instead.
+  private ByteBuffer readSource(InputStream in, ScanBuffers buffers) {
+    try {
+      if (buffers != null) {
+        return buffers.read(in);
+      } else if (in instanceof FileInputStream) {
+        FileChannel channel = ((FileInputStream) in).getChannel();
+        long start = channel.position();
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, channel.size() - start);
+      }
+      return ByteBuffer.wrap(in.readAllBytes());
+    } catch (IOException e) {
+      _errors.reportError("Unable to read input, cannot scan");
+      return ByteBuffer.allocate(0);
+    }
+  }
 
-    // TODO: Determine what the token is. For example, if it is a number
-    //  keep calling takeIt() until _currentChar is not a number. Then
-    //  create the token via makeToken(TokenType.IntegerLiteral) and return it.
+  public Token scan() {
+    Token token = new Token(TokenType.EOT, null);
+    scan(token);
+    return token;
+  }
 
-    _currentText.setLength(0); // reset _currentText string
-    if (_endOfFileReached) {
-      return makeToken(TokenType.EOT);
-    }
-    // skip white space
-    if (whiteSpaceScan()) {
-      return makeToken(TokenType.EOT);
-    }
-    // check for comments
-    if (_currentChar == '/') {
-      skipIt();
-      if (_currentChar == '/' || _currentChar == '*') {
-        return commentScan();
+  // Scans the next token into a token the caller already owns
+  void scan(Token token) {
+    while (true) {
+      skipTrivia();
+      _tokenStart = _charOffset; // start a new token
+      TokenType type = _endOfFileReached ? TokenType.EOT : scanToken();
+      if (type != null) {
+        // text is left in the buffer, the token only materializes it if asked
+        token.set(type, this, _tokenStart, _charOffset - _tokenStart);
+        return;
       }
-      return new Token(TokenType.OPERATOR, "/");
+      // bad input was already reported, carry on with whatever follows it
+    }
+  }
+
+  // Returns null if the characters at _tokenStart don't form a token
+  private TokenType scanToken() {
+    if (_currentChar == '/') { // comments were already skipped, so this is division
+      takeIt();
+      return TokenType.OPERATOR;
     } else if (_currentChar == '=') {
       takeIt();
       if (_currentChar == '=') {
         takeIt();
-        return makeToken(TokenType.OPERATOR);
+        return TokenType.OPERATOR;
       }
-      return makeToken(TokenType.EQUALS);
+      return TokenType.EQUALS;
     } else if (_currentChar == '>' || _currentChar == '<' || _currentChar == '!') {
       takeIt();
       if (_currentChar == '=') {
         takeIt();
       }
-      return makeToken(TokenType.OPERATOR);
+      return TokenType.OPERATOR;
     } else if (_currentChar == '&') {
       takeIt();
       if (_currentChar == '&') {
         takeIt();
-        return new Token(TokenType.OPERATOR, "&&");
+        return TokenType.OPERATOR;
       }
-      _errors.reportError("Cannot convert input: \"" + _currentText.toString() + "\" to a token");
-      return scan();
+      _errors.reportError(position(_tokenStart), "Cannot convert input: \"" + currentText() + "\" to a token");
+      return null;
     } else if (_currentChar == '|') {
       takeIt();
       if (_currentChar == '|') {
         takeIt();
-        return new Token(TokenType.OPERATOR, "||");
+        return TokenType.OPERATOR;
       }
-      _errors.reportError("Cannot convert input: \"" + _currentText.toString() + "\" to a token");
-      return scan();
+      _errors.reportError(position(_tokenStart), "Cannot convert input: \"" + currentText() + "\" to a token");
+      return null;
     } else if (_currentChar == '{') {
       takeIt();
-      return makeToken(TokenType.LCURLY);
+      return TokenType.LCURLY;
     } else if (_currentChar == '}') {
       takeIt();
-      return makeToken(TokenType.RCURLY);
+      return TokenType.RCURLY;
     } else if (_currentChar == '[') {
       takeIt();
-      whiteSpaceScan();
-      if(_currentChar == ']') {
-        takeIt();
-        return makeToken(TokenType.BRACKETS);
-      }
-      return makeToken(TokenType.LBRACK);
+      return TokenType.LBRACK;
     } else if (_currentChar == ']') {
       takeIt();
-      return makeToken(TokenType.RBRACK);
+      return TokenType.RBRACK;
     } else if (_currentChar == '(') {
       takeIt();
-      return makeToken(TokenType.LPAREN);
+      return TokenType.LPAREN;
     } else if (_currentChar == ')') {
       takeIt();
-      return makeToken(TokenType.RPAREN);
+      return TokenType.RPAREN;
     } else if (_currentChar == ',') {
       takeIt();
-      return makeToken(TokenType.COMMA);
+      return TokenType.COMMA;
     } else if (_currentChar == ';') {
       takeIt();
-      return makeToken(TokenType.SEMICOLON);
+      return TokenType.SEMICOLON;
     } else if (_currentChar == '.') {
       takeIt();
-      return makeToken(TokenType.PERIOD);
+      return TokenType.PERIOD;
     } else if (_currentChar == '+' || _currentChar == '-' || _currentChar == '*') {
       takeIt();
-      return makeToken(TokenType.OPERATOR);
+      return TokenType.OPERATOR;
     }
-    // TODO: Check current char and return token type if "{" or other single char token
 
-    // TODO: Check for int literals?
-    while (_currentChar != '{'
-        && _currentChar != '}'
-        && _currentChar != '('
-        && _currentChar != ')'
-        && _currentChar != '['
-        && _currentChar != ']'
-        && _currentChar != ','
-        && _currentChar != ';'
-        && _currentChar != '.'
-        && _currentChar != '='
-        && _currentChar != ' '
-        && _currentChar != '\n'
-        && _currentChar != '\t'
-        && _currentChar != '\r'
-        && _currentChar != '/'
-        && _currentChar != '>'
-        && _currentChar != '<'
-        && _currentChar != '!'
-        && _currentChar != '&'
-        && _currentChar != '|'
-        && _currentChar != '+'
-        && _currentChar != '-'
-        && _currentChar != '*') {
-      if (_endOfFileReached) {
-        return makeToken(TokenType.EOT);
-      }
+    // everything up to the next delimiter or the end of the source is one word: a keyword,
+    //  identifier or int literal
+    while (!_endOfFileReached && !isDelimiter(_currentChar)) {
       takeIt();
     }
 
-    switch (_currentText.toString()) {
-      case "class":
-        return makeToken(TokenType.CLASS);
-      case "public":
-        return makeToken(TokenType.PUBLIC);
-      case "private":
-        return makeToken(TokenType.PRIVATE);
-      case "static":
-        return makeToken(TokenType.STATIC);
-      case "void":
-        return makeToken(TokenType.VOID);
-      case "int":
-        return makeToken(TokenType.INT);
-      case "boolean":
-        return makeToken(TokenType.BOOLEAN);
-      case "if":
-        return makeToken(TokenType.IF);
-      case "else":
-        return makeToken(TokenType.ELSE);
-      case "return":
-        return makeToken(TokenType.RETURN);
-      case "while":
-        return makeToken(TokenType.WHILE);
-      case "this":
-        return makeToken(TokenType.THIS);
-      case "null":
-        return makeToken(TokenType.NULLLITERAL);
-      case "new":
-        return makeToken(TokenType.NEW);
-      case "true":
-      case "false":
-        return makeToken(TokenType.BOOLEANLITERAL);
-      default:
-        if (Character.isDigit(_currentText.charAt(0))) {
-          for (int i = 1; i < _currentText.length(); i++) {
-            if (!Character.isDigit(_currentText.charAt(0))) {
-              _errors.reportError(
-                  "Cannot convert input: \"" + _currentText.toString() + "\" to a token");
-              return scan();
-            }
-          }
-          return makeToken(TokenType.INTLITERAL);
-        } else {
-          if (_currentText.charAt(0) != '_') {
-            return makeToken(TokenType.IDENTIFIER);
-          }
-          _errors.reportError(
-              "Cannot convert input: \"" + _currentText.toString() + "\" to a token");
-          return scan();
+    int length = _charOffset - _tokenStart;
+    TokenType keyword = matchKeyword(_tokenStart, length);
+    if (keyword != null) {
+      return keyword;
+    }
+    int first = charClass(_source.get(_tokenStart));
+    if (first == DIGIT) {
+      for (int i = 1; i < length; i++) {
+        if (charClass(_source.get(_tokenStart + i)) != DIGIT) {
+          _errors.reportError(position(_tokenStart),
+              "Cannot convert input: \"" + currentText() + "\" to a token");
+          return null;
         }
+      }
+      return TokenType.INTLITERAL;
+    } else if (first != UNDERSCORE) {
+      return TokenType.IDENTIFIER;
     }
+    _errors.reportError(position(_tokenStart),
+        "Cannot convert input: \"" + currentText() + "\" to a token");
+    return null;
   }
-  // TODO: Reformat this, logic isn't great
-  private Token commentScan() {
-    if (_currentChar == '/') {
-      skipIt();
-      while (_currentChar != '\n' && _currentChar != '\r' && !_endOfFileReached) {
-        skipIt();
+
+  // Keyword lookup straight off the source bytes: (6 * first + 9 * last + length) & 31 is
+  //  collision free over the miniJava keywords, so one probe and a byte compare decides it
+  private TokenType matchKeyword(int offset, int length) {
+    int first = _source.get(offset) & 0xFF;
+    int last = _source.get(offset + length - 1) & 0xFF;
+    int slot = keywordHash(first, last, length);
+    byte[] candidate = KEYWORD_SPELLINGS[slot];
+    if (candidate == null || candidate.length != length) {
+      return null;
+    }
+    for (int i = 0; i < length; i++) {
+      if (candidate[i] != _source.get(offset + i)) {
+        return null;
       }
-      return scan(); // return next token after comment
-    } else if (_currentChar == '*') {
-      skipIt();
-      while (!_endOfFileReached) {
-        if (_currentChar == '*') {
+    }
+    return KEYWORD_TYPES[slot];
+  }
+
+  private static int keywordHash(int first, int last, int length) {
+    return (6 * first + 9 * last + length) & 31;
+  }
+
+  private static boolean isDelimiter(char c) {
+    return c < 128 && (CHAR_CLASS[c] == DELIMITER || CHAR_CLASS[c] == WHITESPACE);
+  }
+
+  private static int charClass(byte b) {
+    return b < 0 ? OTHER : CHAR_CLASS[b];
+  }
+
+  // Whitespace and both kinds of comment are skipped in one loop,
+  //  so a file that is mostly comments costs no extra stack
+  private void skipTrivia() {
+    while (!_endOfFileReached) {
+      if (_currentChar < 128 && CHAR_CLASS[_currentChar] == WHITESPACE) {
+        skipIt();
+      } else if (_currentChar == '/' && peekChar() == '/') {
+        while (_currentChar != '\n' && _currentChar != '\r' && !_endOfFileReached) {
           skipIt();
-          if (_currentChar == '/') {
+        }
+      } else if (_currentChar == '/' && peekChar() == '*') {
+        int commentStart = _charOffset;
+        skipIt();
+        skipIt();
+        boolean closed = false;
+        while (!closed && !_endOfFileReached) {
+          if (_currentChar == '*') {
+            skipIt();
+            if (_currentChar == '/') {
+              skipIt();
+              closed = true;
+            }
+          } else {
             skipIt();
-            return scan();
           }
-        } else {
-          skipIt();
         }
+        if (!closed) {
+          _errors.reportError(position(commentStart), "Unterminated '/*' comment");
+        }
+      } else {
+        return;
       }
-      _errors.reportError("Unterminated '/*' comment");
-    }
-    return makeToken(TokenType.EOT); // Should never get here
-  }
-
-  private boolean whiteSpaceScan() {
-    while (_currentChar == ' '
-            || _currentChar == '\n'
-            || _currentChar == '\t'
-            || _currentChar == '\r') {
-      if (_endOfFileReached) {
-        return true;
-      }
-      skipIt();
     }
-    return false;
   }
 
   private void takeIt() {
-    _currentText.append(_currentChar);
-    nextChar();
+    nextChar(); // the token text is the span [_tokenStart, _charOffset) of _source
   }
 
   private void skipIt() {
     nextChar();
   }
 
+  // The character after _currentChar, without consuming anything
+  private char peekChar() {
+    return _cursor < _source.limit() ? (char) (_source.get(_cursor) & 0xFF) : (char) -1;
+  }
+
   private void nextChar() {
-    try {
-      int c = _in.read();
-      _currentChar = (char) c;
+    _charOffset = _cursor;
+    if (_cursor < _source.limit()) {
+      _currentChar = (char) (_source.get(_cursor++) & 0xFF); // above 127 is never a delimiter, see charClass
+    } else {
+      _currentChar = (char) -1;
+      _endOfFileReached = true;
+    }
+  }
 
-      // TODO: What happens if c == -1?
-      if (c == -1) {
-        _endOfFileReached = true;
-      }
-      // TODO: What happens if c is not a regular ASCII character?
+  // Interned spelling of a span of the source, shared with every other token spelled the same way
+  String spelling(int offset, int length) {
+    return _names.intern(_source, offset, length);
+  }
 
-    } catch (IOException e) {
-      // TODO: Report an error here
-      _errors.reportError("Unrecognized ASCII character, cannot scan");
+  // SHA-256 of the source between two offsets, in hex
+  String hash(int from, int to) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(_source.slice(from, to - from));
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      return null; // never matches a cached class
     }
   }
 
-  private Token makeToken(TokenType toktype) {
-    // TODO: return a new Token with the appropriate type and text
-    //  contained in
-    return new Token(toktype, _currentText.toString());
+  SourcePosition position(int offset) {
+    long packed = _lines.lineAndColumn(offset);
+    return new SourcePosition((int) (packed >>> 32), (int) packed);
+  }
+
+  // Uninterned text of the token scanned so far, only used for error messages
+  private String currentText() {
+    byte[] bytes = new byte[_charOffset - _tokenStart];
+    _source.get(_tokenStart, bytes);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
   }
 }
@@ -1,4 +1,27 @@
 package miniJava.SyntacticAnalyzer;
 
+// Line and column packed into one long (line in the high 32 bits), both 1-based
 public class SourcePosition {
+  private final long _packed;
+
+  public SourcePosition(int line, int column) {
+    this._packed = pack(line, column);
+  }
+
+  public static long pack(int line, int column) {
+    return ((long) line << 32) | (column & 0xFFFFFFFFL);
+  }
+
+  public int getLine() {
+    return (int) (_packed >>> 32);
+  }
+
+  public int getColumn() {
+    return (int) _packed;
+  }
+
+  @Override
+  public String toString() {
+    return getLine() + ":" + getColumn();
+  }
 }
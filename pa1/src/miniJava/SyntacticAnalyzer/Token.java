@@ -3,24 +3,49 @@ package miniJava.SyntacticAnalyzer;
 public class Token {
 	private TokenType _type;
 	private String _text;
+	private Scanner _source;
+	private int _offset;
+	private int _length;
 	
 	public Token(TokenType type, String text) {
 		// TODO: Store the token's type and text
 		this._type = type;
 		this._text = text;
 	}
-	
+
+	// Scanned tokens only remember where they sit in the source,
+	//  the text is interned the first time someone asks for it.
+	//  The parser's lookahead buffer refills its tokens in place through this.
+	void set(TokenType type, Scanner source, int offset, int length) {
+		this._type = type;
+		this._source = source;
+		this._offset = offset;
+		this._length = length;
+		this._text = null;
+	}
+
 	public TokenType getTokenType() {
 		// TODO: Return the token type
 		return _type;
 	}
 	
 	public String getTokenText() {
-		// TODO: Return the token text
+		if (_text == null && _source != null)
+			_text = _source.spelling(_offset, _length);
 		return _text;
 	}
 
+	public int getOffset() {
+		return _offset;
+	}
+
+	public int getLength() {
+		return _length;
+	}
+
 	public SourcePosition getTokenPosition() {
-		return null;
+		if (_source == null)
+			return null; // made up by the compiler, not scanned
+		return _source.position(_offset);
 	}
 }
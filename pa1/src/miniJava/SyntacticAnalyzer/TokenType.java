@@ -42,7 +42,6 @@ public enum TokenType {
     RPAREN,
     LBRACK,
     RBRACK,
-    BRACKETS,
     COMMA,
     PERIOD,
     SEMICOLON,